@@ -0,0 +1,57 @@
+package dev.d4nilpzz.benchmarks;
+
+import dev.d4nilpzz.auth.AccessToken;
+import dev.d4nilpzz.auth.AuthRoute;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the permission check of {@link AuthRoute#requireManagerOrWrite} once the token is known:
+ * manager tokens, and route-scoped tokens with a growing number of routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuthRouteBenchmark {
+    @Param({"1", "10", "100"})
+    public int routes;
+
+    private AccessToken manager;
+    private AccessToken scoped;
+    private String lastRoute;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = new AccessToken(1, "PERSISTENT", "manager", "", "", List.of("U", "MANAGER"), List.of());
+
+        List<AccessToken.Route> scopedRoutes = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            AccessToken.Route route = new AccessToken.Route();
+            route.path = "/api/file/upload/releases/com/example/lib" + i;
+            route.routePermission = "W";
+            scopedRoutes.add(route);
+        }
+        scoped = new AccessToken(2, "PERSISTENT", "ci", "", "", List.of("U"), scopedRoutes);
+        lastRoute = "/api/file/upload/releases/com/example/lib" + (routes - 1) + "/1.0.0";
+    }
+
+    @Benchmark
+    public boolean manager() {
+        return AuthRoute.canWrite(manager, "/api/file/upload");
+    }
+
+    @Benchmark
+    public boolean scopedMatch() {
+        return AuthRoute.canWrite(scoped, lastRoute);
+    }
+
+    @Benchmark
+    public boolean scopedReject() {
+        return AuthRoute.canWrite(scoped, "/api/config/update");
+    }
+}
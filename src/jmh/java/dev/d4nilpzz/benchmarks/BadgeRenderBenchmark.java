@@ -0,0 +1,26 @@
+package dev.d4nilpzz.benchmarks;
+
+import dev.d4nilpzz.utils.BadgeRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a badge the way {@code BadgeController} does on a cache miss: the SVG
+ * document and its UTF-8 encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BadgeRenderBenchmark {
+    @Param({"1.0.0", "2024.11.27-SNAPSHOT"})
+    public String version;
+
+    @Benchmark
+    public byte[] render() {
+        return BadgeRenderer.render("releases", version, "4c1", "3").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,37 @@
+package dev.d4nilpzz.benchmarks;
+
+import dev.d4nilpzz.utils.MavenUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MavenUtils#generateMavenMetadata}, which runs on every upload, for artifacts
+ * with many published versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MavenMetadataBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int versions;
+
+    private Set<String> versionSet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        versionSet = new HashSet<>();
+        for (int i = 0; i < versions; i++) {
+            versionSet.add((i / 100) + "." + (i / 10 % 10) + "." + (i % 10));
+        }
+    }
+
+    @Benchmark
+    public String generate() {
+        return MavenUtils.generateMavenMetadata("com.example", "lib", versionSet);
+    }
+}
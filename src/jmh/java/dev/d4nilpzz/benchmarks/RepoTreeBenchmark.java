@@ -0,0 +1,62 @@
+package dev.d4nilpzz.benchmarks;
+
+import dev.d4nilpzz.repos.RepositoryData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures {@link RepositoryData#loadRepoTree}, the directory scan behind {@code /api/page/content},
+ * over a synthetic repository of {@code artifacts} artifacts spread over 10 groups, each with 5
+ * versions of a jar, a pom and their checksums.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepoTreeBenchmark {
+    private static final int GROUPS = 10;
+    private static final int VERSIONS = 5;
+
+    @Param({"100", "1000"})
+    public int artifacts;
+
+    private Path repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        repository = Files.createTempDirectory("repossify-bench-tree").resolve("releases");
+        for (int a = 0; a < artifacts; a++) {
+            Path artifact = repository.resolve("com/example/group" + (a % GROUPS)).resolve("lib" + a);
+            for (int v = 0; v < VERSIONS; v++) {
+                String version = "1." + v + ".0";
+                Path versionDir = Files.createDirectories(artifact.resolve(version));
+                for (String extension : new String[]{".jar", ".jar.sha1", ".pom", ".pom.sha1"}) {
+                    Files.writeString(versionDir.resolve("lib" + a + "-" + version + extension), "x");
+                }
+            }
+            Files.writeString(artifact.resolve("maven-metadata.xml"), "<metadata/>");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(repository.getParent())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<RepositoryData.TreeNode> scan() throws IOException {
+        return RepositoryData.loadRepoTree(repository, "/releases");
+    }
+}
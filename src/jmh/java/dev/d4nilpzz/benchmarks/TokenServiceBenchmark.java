@@ -0,0 +1,82 @@
+package dev.d4nilpzz.benchmarks;
+
+import dev.d4nilpzz.auth.AccessToken;
+import dev.d4nilpzz.auth.TokenService;
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TokenService#getTokenBySecret}, which every authenticated request goes through.
+ * The lookup checks the secret against every stored token, so the token count is a parameter.
+ * Secrets are hashed with {@code rounds} BCrypt log rounds; the default keeps setup and the
+ * 1000-token case short, {@code -p rounds=10} measures the cost of tokens created by the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenServiceBenchmark {
+    @Param({"10", "100", "1000"})
+    public int tokens;
+
+    @Param({"4"})
+    public int rounds;
+
+    private Path directory;
+    private TokenService service;
+    private String lastSecret;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("repossify-bench-tokens");
+        String url = "jdbc:sqlite:" + directory.resolve("tokens.db");
+        service = new TokenService(url);
+
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.setAutoCommit(false);
+            PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO access_tokens(name, secret, type, description, created_at) VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < tokens; i++) {
+                lastSecret = "secret-" + i;
+                ps.setString(1, "token-" + i);
+                ps.setString(2, BCrypt.hashpw(lastSecret, BCrypt.gensalt(rounds)));
+                ps.setString(3, "PERSISTENT");
+                ps.setString(4, "Benchmark");
+                ps.setString(5, Instant.now().toString());
+                ps.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("tokens.db"));
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * The token stored last, found after checking every other one.
+     */
+    @Benchmark
+    public AccessToken lastToken() throws Exception {
+        return service.getTokenBySecret(lastSecret);
+    }
+
+    /**
+     * A secret that matches no token, as sent by misconfigured clients.
+     */
+    @Benchmark
+    public AccessToken unknownSecret() throws Exception {
+        return service.getTokenBySecret("not-a-token");
+    }
+}
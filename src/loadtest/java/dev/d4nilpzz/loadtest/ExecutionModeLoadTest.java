@@ -0,0 +1,151 @@
+package dev.d4nilpzz.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the {@code platform} and {@code virtual} execution modes under the same load.
+ * <p>
+ * For each mode a {@link LoadTestServer} is started. Slow clients download large jars at a trickle,
+ * holding on to whatever runs their request, while closed-loop clients fetch small poms as fast as
+ * they can. The throughput and latency percentiles of the fast clients show how well each mode
+ * keeps serving under that pressure. Asynchronous downloads are turned off so every download
+ * occupies its request thread.
+ * <p>
+ * Run with {@code mvn -P loadtest verify}. Tunables, as system properties:
+ * {@code loadtest.seconds}, {@code loadtest.clients}, {@code loadtest.slowClients},
+ * {@code loadtest.maxThreads}.
+ */
+public class ExecutionModeLoadTest {
+    private static final int LARGE_FILES = 8;
+    private static final int LARGE_FILE_BYTES = 8 * 1024 * 1024;
+
+    private final int seconds = Integer.getInteger("loadtest.seconds", 20);
+    private final int clients = Integer.getInteger("loadtest.clients", 32);
+    private final int slowClients = Integer.getInteger("loadtest.slowClients", 32);
+    private final int maxThreads = Integer.getInteger("loadtest.maxThreads", 48);
+
+    private record Result(String mode, long requests, long errors, double seconds, long[] latencies) {
+        double throughput() {
+            return requests / seconds;
+        }
+
+        double percentileMs(double p) {
+            if (latencies.length == 0) return Double.NaN;
+            int index = (int) Math.min(latencies.length - 1, Math.ceil(p * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ExecutionModeLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        System.out.printf("Execution mode load test: %ds, %d clients, %d slow clients, pool of %d threads%n",
+                seconds, clients, slowClients, maxThreads);
+
+        List<Result> results = new ArrayList<>();
+        for (String mode : List.of("platform", "virtual")) {
+            List<String> properties = List.of(
+                    "server.max_threads=" + maxThreads,
+                    "downloads.async=false",
+                    // Keep every small file on disk so both modes block on real reads
+                    "hot_cache.max_mb=0"
+            );
+            try (LoadTestServer server = LoadTestServer.start(properties, LARGE_FILES, LARGE_FILE_BYTES,
+                    "--execution-mode", mode)) {
+                System.out.printf("%n[%s] server up on port %d%n", mode, server.port);
+                results.add(load(server, mode));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-10s %12s %10s %10s %10s %8s%n", "mode", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (Result r : results) {
+            System.out.printf("%-10s %12.1f %10.2f %10.2f %10.2f %8d%n", r.mode, r.throughput(),
+                    r.percentileMs(0.50), r.percentileMs(0.99), r.percentileMs(1.0), r.errors);
+        }
+    }
+
+    private Result load(LoadTestServer server, String mode) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicLong errors = new AtomicLong();
+        List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService slow = Executors.newFixedThreadPool(slowClients);
+        for (int i = 0; i < slowClients; i++) {
+            String path = LoadTestServer.largeFile(i % LARGE_FILES);
+            slow.submit(() -> {
+                while (running.get()) server.trickle(path, 8 * 1024, 25, running::get);
+                return null;
+            });
+        }
+        // Let the slow downloads occupy the server before the measured clients start.
+        Thread.sleep(2_000);
+
+        ExecutorService httpExecutor = Executors.newFixedThreadPool(4);
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(httpExecutor)
+                .build();
+        ExecutorService fast = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < clients; i++) {
+            fast.submit(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                while (running.get()) {
+                    String path = LoadTestServer.smallFile(ThreadLocalRandom.current().nextInt(LoadTestServer.SMALL_FILES));
+                    long start = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = http.send(HttpRequest.newBuilder(server.file(path)).timeout(Duration.ofSeconds(5)).build(),
+                                HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+                    } catch (Exception e) {
+                        ok = false;
+                    }
+                    long elapsed = System.nanoTime() - start;
+
+                    if (!measuring.get()) continue;
+                    if (!ok) errors.incrementAndGet();
+                    if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                    samples[count++] = elapsed;
+                }
+                latencies.add(Arrays.copyOf(samples, count));
+                return null;
+            });
+        }
+
+        Thread.sleep(3_000);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        measuring.set(false);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        running.set(false);
+        fast.shutdown();
+        slow.shutdownNow();
+        fast.awaitTermination(60, TimeUnit.SECONDS);
+        slow.awaitTermination(10, TimeUnit.SECONDS);
+        http.close();
+        httpExecutor.shutdown();
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        Result result = new Result(mode, all.length, errors.get(), elapsed, all);
+        System.out.printf("[%s] %d requests, %.1f req/s, p99 %.2f ms, %d errors%n",
+                mode, result.requests, result.throughput(), result.percentileMs(0.99), result.errors);
+        return result;
+    }
+}
@@ -0,0 +1,398 @@
+package dev.d4nilpzz.loadtest;
+
+import dev.d4nilpzz.auth.TokenService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A Repossify server running in its own JVM on a temporary data directory, for the load tests.
+ * <p>
+ * The directory is initialized with {@code --init} and filled with synthetic repositories:
+ * {@code releases/com/example/lib<n>/1.0.0/lib<n>-1.0.0.pom} for small files and
+ * {@code releases/com/example/big<n>/1.0.0/big<n>-1.0.0.jar} for large ones, or laid out like a
+ * real Maven repository as described by {@link SyntheticRepository}.
+ */
+public class LoadTestServer implements AutoCloseable {
+    public static final int SMALL_FILES = 500;
+
+    public final Path dir;
+    public final int port;
+    private final Process process;
+
+    /**
+     * A Maven repository {@code releases} with {@code groups} groups {@code synthetic.g<n>}, each
+     * holding {@code artifacts} artifacts {@code a<n>} in {@code versions} versions {@code 1.<n>.0}.
+     * Every version has a pom, a jar of up to {@code maxJarBytes} and their {@code .sha1} checksums,
+     * every artifact a {@code maven-metadata.xml} with its checksum.
+     */
+    public record SyntheticRepository(int groups, int artifacts, int versions, int maxJarBytes) {
+        public String artifactPath(int group, int artifact) {
+            return "releases/synthetic/g" + group + "/a" + artifact;
+        }
+
+        public String filePath(int group, int artifact, int version, String extension) {
+            return artifactPath(group, artifact) + "/" + version(version) + "/a" + artifact + "-" + version(version) + extension;
+        }
+
+        public static String version(int version) {
+            return "1." + version + ".0";
+        }
+
+        private void write(Path repos, Random random) throws IOException {
+            for (int g = 0; g < groups; g++) {
+                for (int a = 0; a < artifacts; a++) {
+                    StringBuilder versionsXml = new StringBuilder();
+                    for (int v = 0; v < versions; v++) {
+                        Files.createDirectories(repos.resolve(filePath(g, a, v, ".pom")).getParent());
+                        writeWithChecksum(repos.resolve(filePath(g, a, v, ".pom")),
+                                ("<project><groupId>synthetic.g" + g + "</groupId><artifactId>a" + a
+                                        + "</artifactId><version>" + version(v) + "</version></project>\n")
+                                        .getBytes(StandardCharsets.UTF_8));
+
+                        // Mostly small jars with a few large ones, like a real repository.
+                        byte[] jar = new byte[(int) Math.min(maxJarBytes, 1024 + Math.pow(random.nextDouble(), 8) * maxJarBytes)];
+                        random.nextBytes(jar);
+                        writeWithChecksum(repos.resolve(filePath(g, a, v, ".jar")), jar);
+                        versionsXml.append("<version>").append(version(v)).append("</version>");
+                    }
+                    writeWithChecksum(repos.resolve(artifactPath(g, a)).resolve("maven-metadata.xml"),
+                            ("<metadata><groupId>synthetic.g" + g + "</groupId><artifactId>a" + a
+                                    + "</artifactId><versioning><versions>" + versionsXml
+                                    + "</versions></versioning></metadata>\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        private static void writeWithChecksum(Path file, byte[] content) throws IOException {
+            Files.write(file, content);
+            Files.writeString(file.resolveSibling(file.getFileName() + ".sha1"), sha1(content));
+        }
+    }
+
+    /**
+     * Fills {@code data/repos} before the server starts; {@code data/page.json} already exists
+     * next to it.
+     */
+    @FunctionalInterface
+    public interface Populate {
+        void into(Path repos, Random random) throws IOException;
+    }
+
+    private LoadTestServer(Path dir, int port, Process process) {
+        this.dir = dir;
+        this.port = port;
+        this.process = process;
+    }
+
+    /**
+     * Prepares a data directory and starts a server on it.
+     *
+     * @param properties     lines appended to {@code repossify.properties}
+     * @param largeFiles     number of large jars to create
+     * @param largeFileBytes size of each large jar
+     * @param args           extra command line arguments
+     */
+    public static LoadTestServer start(List<String> properties, int largeFiles, int largeFileBytes, String... args)
+            throws Exception {
+        return start(properties, (repos, random) -> {
+            Path repo = repos.resolve("releases/com/example");
+            for (int i = 0; i < SMALL_FILES; i++) {
+                Path version = repo.resolve("lib" + i + "/1.0.0");
+                Files.createDirectories(version);
+                Files.writeString(version.resolve("lib" + i + "-1.0.0.pom"), pom(i, random));
+            }
+            for (int i = 0; i < largeFiles; i++) {
+                Path version = repo.resolve("big" + i + "/1.0.0");
+                Files.createDirectories(version);
+                byte[] bytes = new byte[largeFileBytes];
+                random.nextBytes(bytes);
+                Files.write(version.resolve("big" + i + "-1.0.0.jar"), bytes);
+            }
+        }, args);
+    }
+
+    /**
+     * Prepares a data directory holding a synthetic Maven repository and starts a server on it.
+     *
+     * @param properties lines appended to {@code repossify.properties}
+     * @param repository layout of the {@code releases} repository
+     * @param args       extra command line arguments
+     */
+    public static LoadTestServer start(List<String> properties, SyntheticRepository repository, String... args)
+            throws Exception {
+        return start(properties, repository::write, args);
+    }
+
+    /**
+     * Prepares a data directory and starts a server on it.
+     *
+     * @param properties lines appended to {@code repossify.properties}
+     * @param populate   prepares the data directory
+     * @param args       extra command line arguments
+     */
+    public static LoadTestServer start(List<String> properties, Populate populate, String... args) throws Exception {
+        Path dir = Files.createTempDirectory("repossify-loadtest-");
+        int port = freePort();
+
+        Process init = new ProcessBuilder(javaCommand("--init"))
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("init.log").toFile())
+                .start();
+        if (init.waitFor() != 0) throw new IllegalStateException("--init failed, see " + dir.resolve("init.log"));
+
+        List<String> lines = new ArrayList<>(List.of("port=" + port, "hostname=127.0.0.1"));
+        lines.addAll(properties);
+        Files.writeString(dir.resolve("repossify.properties"), String.join("\n", lines) + "\n");
+
+        populate.into(dir.resolve("data/repos"), new Random(42));
+
+        List<String> command = new ArrayList<>(List.of("-p", String.valueOf(port)));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(javaCommand(command.toArray(String[]::new)))
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile())
+                .start();
+
+        LoadTestServer server = new LoadTestServer(dir, port, process);
+        try {
+            server.awaitReady();
+        } catch (Exception e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Creates an access token directly in the server's database.
+     *
+     * @param name        token name
+     * @param permissions e.g. {@code M} for a manager token
+     * @return the token secret
+     */
+    public String createToken(String name, String permissions) throws Exception {
+        String secret = UUID.randomUUID().toString().replace("-", "");
+        new TokenService("jdbc:sqlite:" + dir.resolve("data/repossify.db"))
+                .createToken(name, List.of(permissions.split(",")), secret);
+        return secret;
+    }
+
+    /**
+     * @param path path below the server root, e.g. {@code /api/page/content}
+     */
+    public URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + port + path);
+    }
+
+    /**
+     * Builds an upload request the way the web interface sends it, with a generated pom.
+     *
+     * @param token    secret of a token allowed to upload
+     * @param filename name of the uploaded file, e.g. {@code lib-1.0.0.jar}
+     */
+    public HttpRequest upload(String token, String repo, String groupId, String artifactId, String version,
+                              String filename, byte[] content, Duration timeout) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("repo", repo);
+        fields.put("path", groupId.replace('.', '/') + "/" + artifactId + "/" + version);
+        fields.put("mach", "true");
+        fields.put("generate_pom_file", "true");
+        fields.put("maven[groupId]", groupId);
+        fields.put("maven[artifactId]", artifactId);
+        fields.put("maven[version]", version);
+
+        String boundary = "loadtest" + UUID.randomUUID().toString().replace("-", "");
+        StringBuilder head = new StringBuilder();
+        fields.forEach((name, value) -> head.append("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n")
+                .append(value).append("\r\n"));
+        head.append("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(filename).append("\"\r\n")
+                .append("Content-Type: application/octet-stream\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        byte[] body = new byte[headBytes.length + content.length + tail.length];
+        System.arraycopy(headBytes, 0, body, 0, headBytes.length);
+        System.arraycopy(content, 0, body, headBytes.length, content.length);
+        System.arraycopy(tail, 0, body, headBytes.length + content.length, tail.length);
+
+        return HttpRequest.newBuilder(uri("/api/file/upload"))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    /**
+     * @param path path below {@code /api/file/view/}
+     */
+    public URI file(String path) {
+        return URI.create("http://127.0.0.1:" + port + "/api/file/view/" + path);
+    }
+
+    /**
+     * @return path of a small pom below {@code /api/file/view/}
+     */
+    public static String smallFile(int i) {
+        return "releases/com/example/lib" + i + "/1.0.0/lib" + i + "-1.0.0.pom";
+    }
+
+    /**
+     * @return path of a large jar below {@code /api/file/view/}
+     */
+    public static String largeFile(int i) {
+        return "releases/com/example/big" + i + "/1.0.0/big" + i + "-1.0.0.jar";
+    }
+
+    /**
+     * @return number of threads of the server process, or -1 if the platform does not tell
+     */
+    public int threads() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(process.pid()), "status"))) {
+                if (line.startsWith("Threads:")) return Integer.parseInt(line.substring(8).trim());
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    /**
+     * Downloads a file over a raw socket with a small receive window, reading a little at a time.
+     *
+     * @param running checked between reads; the download is abandoned once it returns false
+     * @return number of body bytes received, or -1 if the connection failed
+     */
+    public long trickle(String path, int chunkBytes, long pauseMillis, BooleanSupplier running) {
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 5_000);
+            socket.setSoTimeout(60_000);
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /api/file/view/" + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[chunkBytes];
+            long received = 0;
+            int headerEnd = -1;
+            byte[] head = new byte[0];
+            int n;
+            while (running.getAsBoolean() && (n = in.read(buffer)) != -1) {
+                if (headerEnd < 0) {
+                    head = Arrays.copyOf(head, head.length + n);
+                    System.arraycopy(buffer, 0, head, head.length - n, n);
+                    headerEnd = indexOf(head, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    if (headerEnd >= 0) received = head.length - headerEnd - 4;
+                } else {
+                    received += n;
+                }
+                Thread.sleep(pauseMillis);
+            }
+            return received;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        process.destroy();
+        if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroyForcibly().waitFor();
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+
+    private void awaitReady() throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + port + "/api/page/content");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) throw new IllegalStateException("Server exited with " + process.exitValue());
+                try {
+                    if (client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                            .statusCode() == 200) return;
+                } catch (IOException ignored) {
+                }
+                Thread.sleep(200);
+            }
+        }
+        throw new IllegalStateException("Server did not start in time");
+    }
+
+    private static String pom(int i, Random random) {
+        StringBuilder pom = new StringBuilder("<project>\n  <groupId>com.example</groupId>\n  <artifactId>lib")
+                .append(i).append("</artifactId>\n  <version>1.0.0</version>\n  <dependencies>\n");
+        int dependencies = 5 + random.nextInt(40);
+        for (int d = 0; d < dependencies; d++) {
+            pom.append("    <dependency><groupId>com.example</groupId><artifactId>lib")
+                    .append(random.nextInt(SMALL_FILES)).append("</artifactId><version>1.0.0</version></dependency>\n");
+        }
+        return pom.append("  </dependencies>\n</project>\n").toString();
+    }
+
+    static String sha1(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> javaCommand(String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx1g",
+                "-cp", System.getProperty("java.class.path"),
+                "dev.d4nilpzz.Repossify"
+        ));
+        command.addAll(List.of(args));
+        return command;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,327 @@
+package dev.d4nilpzz.loadtest;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that concurrent writes to one artifact keep its files and metadata consistent.
+ * <p>
+ * Uploaders publish many versions of the same artifact at once, while a deleter removes some of
+ * the published versions, readers download jars and {@code maven-metadata.xml}, and an editor
+ * keeps updating the page configuration. Throughout the run:
+ * <ul>
+ *     <li>a downloaded jar is either missing because it is being deleted, or byte for byte what was uploaded;</li>
+ *     <li>the metadata always parses and lists every version that was published and is not being deleted.</li>
+ * </ul>
+ * At the end, the metadata must list exactly the versions on disk, which must be exactly the
+ * published versions minus the deleted ones. Throughput of every kind of operation is reported.
+ * <p>
+ * Run with {@code mvn -P loadtest verify}. Tunables, as system properties:
+ * {@code loadtest.seconds}, {@code loadtest.stressUploaders}, {@code loadtest.stressReaders}.
+ * Exits with 1 if a check fails.
+ */
+public class MetadataStressTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final String GROUP_ID = "stress.target";
+    private static final String ARTIFACT_ID = "contended";
+    private static final String ARTIFACT_PATH = "releases/stress/target/contended";
+
+    private final int seconds = Integer.getInteger("loadtest.seconds", 20);
+    private final int uploaders = Integer.getInteger("loadtest.stressUploaders", 8);
+    private final int readers = Integer.getInteger("loadtest.stressReaders", 8);
+
+    // Checksum of the jar of every version whose upload was acknowledged.
+    private final ConcurrentMap<String, String> published = new ConcurrentHashMap<>();
+    // Versions a delete was sent for, added before the request so readers may see them vanish.
+    private final Set<String> deleting = ConcurrentHashMap.newKeySet();
+    private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+    private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, AtomicLong> operations = new ConcurrentSkipListMap<>();
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new MetadataStressTest().run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.printf("Metadata stress test: %ds, %d uploaders, %d readers%n", seconds, uploaders, readers);
+
+        try (LoadTestServer server = LoadTestServer.start(List.of(), 0, 0)) {
+            String token = server.createToken("stress", "M");
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            long started = System.nanoTime();
+            try (HttpClient http = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+                 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < uploaders; i++) {
+                    int uploader = i;
+                    tasks.add(executor.submit(() -> upload(server, http, token, uploader, running)));
+                }
+                for (int i = 0; i < readers; i++) {
+                    tasks.add(executor.submit(() -> read(server, http, running)));
+                }
+                tasks.add(executor.submit(() -> delete(server, http, token, running)));
+                tasks.add(executor.submit(() -> configure(server, http, token, running)));
+
+                Thread.sleep(seconds * 1000L);
+                running.set(false);
+                for (Future<?> task : tasks) task.get();
+
+                double elapsed = (System.nanoTime() - started) / 1e9;
+                verifyFinalState(server, http);
+                return report(elapsed);
+            }
+        }
+    }
+
+    /**
+     * Publishes versions {@code 1.<uploader>.<n>} of the shared artifact, one after another.
+     */
+    private void upload(LoadTestServer server, HttpClient http, String token, int uploader, AtomicBoolean running) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int n = 0; running.get(); n++) {
+            String version = "1." + uploader + "." + n;
+            byte[] jar = new byte[1024 + random.nextInt(128 * 1024)];
+            random.nextBytes(jar);
+
+            HttpRequest request = server.upload(token, "releases", GROUP_ID, ARTIFACT_ID, version,
+                    ARTIFACT_ID + "-" + version + ".jar", jar, TIMEOUT);
+            try {
+                int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status != 201) {
+                    violations.add("Upload of " + version + " answered " + status);
+                    continue;
+                }
+                published.put(version, LoadTestServer.sha1(jar));
+                count("upload");
+            } catch (Exception e) {
+                violations.add("Upload of " + version + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Deletes a random published version every few uploads.
+     */
+    private void delete(LoadTestServer server, HttpClient http, String token, AtomicBoolean running) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+            List<String> candidates = new ArrayList<>(published.keySet());
+            candidates.removeAll(deleting);
+            if (candidates.size() < 4) {
+                sleep(20);
+                continue;
+            }
+
+            String version = candidates.get(random.nextInt(candidates.size()));
+            deleting.add(version);
+            HttpRequest request = HttpRequest.newBuilder(server.uri("/api/file/delete?repo=releases&path="
+                            + "stress/target/contended/" + version))
+                    .timeout(TIMEOUT)
+                    .header("Authorization", "Bearer " + token)
+                    .DELETE()
+                    .build();
+            try {
+                int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status != 204) {
+                    violations.add("Delete of " + version + " answered " + status);
+                } else {
+                    deleted.add(version);
+                    count("delete");
+                }
+            } catch (Exception e) {
+                violations.add("Delete of " + version + " failed: " + e);
+            }
+            sleep(random.nextInt(50));
+        }
+    }
+
+    /**
+     * Alternates between downloading a published jar and the artifact's metadata.
+     */
+    private void read(LoadTestServer server, HttpClient http, AtomicBoolean running) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+            try {
+                if (random.nextBoolean()) {
+                    readJar(server, http, random);
+                } else {
+                    readMetadata(server, http);
+                }
+            } catch (Exception e) {
+                violations.add("Download failed: " + e);
+            }
+        }
+    }
+
+    private void readJar(LoadTestServer server, HttpClient http, ThreadLocalRandom random) throws Exception {
+        List<String> versions = new ArrayList<>(published.keySet());
+        if (versions.isEmpty()) {
+            sleep(10);
+            return;
+        }
+        String version = versions.get(random.nextInt(versions.size()));
+        String expected = published.get(version);
+
+        HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(server.file(ARTIFACT_PATH + "/" + version + "/" + ARTIFACT_ID + "-" + version + ".jar"))
+                        .timeout(TIMEOUT).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        count("download");
+
+        if (response.statusCode() == 404 && deleting.contains(version)) return;
+        if (response.statusCode() != 200) {
+            violations.add("Download of " + version + " answered " + response.statusCode());
+        } else if (!LoadTestServer.sha1(response.body()).equals(expected)) {
+            violations.add("Download of " + version + " returned " + response.body().length + " bytes of other content");
+        }
+    }
+
+    private void readMetadata(LoadTestServer server, HttpClient http) throws Exception {
+        // Anything acknowledged before the request and not being deleted must be listed.
+        Set<String> required = new HashSet<>(published.keySet());
+        required.removeAll(deleting);
+
+        HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(server.file(ARTIFACT_PATH + "/maven-metadata.xml")).timeout(TIMEOUT).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        count("metadata");
+
+        if (response.statusCode() == 404 && required.isEmpty()) return;
+        if (response.statusCode() != 200) {
+            violations.add("Metadata answered " + response.statusCode());
+            return;
+        }
+
+        Set<String> listed = parseVersions(response.body());
+        if (listed == null) return;
+        required.removeAll(listed);
+        if (!required.isEmpty()) violations.add("Metadata lost versions " + required);
+    }
+
+    /**
+     * Keeps rewriting the page description, which republishes the whole configuration.
+     */
+    private void configure(LoadTestServer server, HttpClient http, String token, AtomicBoolean running) {
+        for (int n = 0; running.get(); n++) {
+            HttpRequest request = HttpRequest.newBuilder(server.uri("/api/config/update"))
+                    .timeout(TIMEOUT)
+                    .header("Authorization", "Bearer " + token)
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"description\":\"stress " + n + "\"}"))
+                    .build();
+            try {
+                int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status != 200) violations.add("Config update answered " + status);
+                else count("config");
+            } catch (Exception e) {
+                violations.add("Config update failed: " + e);
+            }
+            sleep(10);
+        }
+    }
+
+    private void verifyFinalState(LoadTestServer server, HttpClient http) throws Exception {
+        Set<String> expected = new TreeSet<>(published.keySet());
+        expected.removeAll(deleted);
+
+        Set<String> onDisk = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(server.dir.resolve("data/repos/" + ARTIFACT_PATH))) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) onDisk.add(path.getFileName().toString());
+            }
+        }
+        if (!onDisk.equals(expected)) {
+            violations.add("Version directories differ from published minus deleted: " + difference(expected, onDisk));
+        }
+
+        HttpResponse<byte[]> response = http.send(
+                HttpRequest.newBuilder(server.file(ARTIFACT_PATH + "/maven-metadata.xml")).timeout(TIMEOUT).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        Set<String> listed = response.statusCode() == 200 ? parseVersions(response.body()) : null;
+        if (listed == null) {
+            violations.add("Final metadata is unreadable, status " + response.statusCode());
+        } else if (!listed.equals(onDisk)) {
+            violations.add("Final metadata differs from version directories: " + difference(onDisk, listed));
+        }
+    }
+
+    /**
+     * @return versions listed by the metadata, or null after recording a violation if it is malformed
+     */
+    private Set<String> parseVersions(byte[] xml) {
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            // Errors are thrown and recorded, instead of also being printed by the default handler.
+            builder.setErrorHandler(new DefaultHandler());
+            Document document = builder.parse(new ByteArrayInputStream(xml));
+            NodeList nodes = document.getElementsByTagName("version");
+            Set<String> versions = new TreeSet<>();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                String version = nodes.item(i).getTextContent().trim();
+                if (!version.isEmpty()) versions.add(version);
+            }
+            return versions;
+        } catch (Exception e) {
+            violations.add("Malformed metadata (" + xml.length + " bytes): " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String difference(Set<String> expected, Set<String> actual) {
+        Set<String> missing = new TreeSet<>(expected);
+        missing.removeAll(actual);
+        Set<String> extra = new TreeSet<>(actual);
+        extra.removeAll(expected);
+        return "missing " + missing + ", unexpected " + extra;
+    }
+
+    private boolean report(double elapsed) {
+        System.out.println();
+        System.out.printf("%-10s %9s %10s%n", "operation", "count", "ops/s");
+        long total = 0;
+        for (Map.Entry<String, AtomicLong> entry : operations.entrySet()) {
+            long count = entry.getValue().get();
+            total += count;
+            System.out.printf("%-10s %9d %10.1f%n", entry.getKey(), count, count / elapsed);
+        }
+        System.out.printf("%-10s %9d %10.1f%n", "total", total, total / elapsed);
+        System.out.printf("%nPublished %d versions, deleted %d%n", published.size(), deleted.size());
+
+        synchronized (violations) {
+            violations.stream().limit(20).forEach(v -> System.out.println("  " + v));
+        }
+        boolean passed = violations.isEmpty() && !published.isEmpty();
+        System.out.printf("%d violations: %s%n", violations.size(), passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private void count(String operation) {
+        operations.computeIfAbsent(operation, o -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
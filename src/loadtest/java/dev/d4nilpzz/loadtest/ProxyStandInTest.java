@@ -0,0 +1,243 @@
+package dev.d4nilpzz.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks how a proxy repository treats upstream checksums, against a local HTTP server standing
+ * in for upstream.
+ * <ul>
+ *     <li>an artifact whose {@code .sha1} is {@code 404} is served and stored unverified;</li>
+ *     <li>an artifact whose {@code .sha1} fails with {@code 500} or {@code 429} is answered with
+ *     {@code 502} and not stored, and is fetched and stored once the checksum is back;</li>
+ *     <li>an artifact that does not match its {@code .sha1} is never answered in full and not stored;</li>
+ *     <li>an artifact that matches is stored with its checksum, and a burst of concurrent first
+ *     requests for it costs a single upstream download;</li>
+ *     <li>when that single download fails, every request waiting for it is answered with
+ *     {@code 502} rather than {@code 404}, and the artifact is served once upstream recovers;</li>
+ *     <li>expired metadata is served right away while a slow upstream is asked for a fresh copy,
+ *     which is served once it arrived.</li>
+ * </ul>
+ * <p>
+ * Run with {@code mvn -P loadtest verify}. Tunables, as system properties:
+ * {@code loadtest.clients}. Exits with 1 if a check fails.
+ */
+public class ProxyStandInTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final String REPOSITORY = "upstream";
+    private static final int ARTIFACT_BYTES = 256 * 1024;
+    private static final int METADATA_TTL_SECONDS = 1;
+
+    private final int clients = Integer.getInteger("loadtest.clients", 32);
+
+    // What the stand-in answers, by path below its root.
+    private final Map<String, Response> upstream = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> upstreamRequests = new ConcurrentHashMap<>();
+    private final List<String> violations = new ArrayList<>();
+
+    private record Response(int status, byte[] body, long delayMillis) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new ProxyStandInTest().run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        HttpServer standIn = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        standIn.createContext("/", this::answer);
+        standIn.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        standIn.start();
+
+        String upstreamUrl = "http://127.0.0.1:" + standIn.getAddress().getPort() + "/";
+        System.out.printf("Proxy stand-in test: upstream on %s, %d concurrent clients%n", upstreamUrl, clients);
+
+        try (LoadTestServer server = LoadTestServer.start(List.of(), (repos, random) -> addProxy(repos, upstreamUrl));
+             HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build()) {
+            Path stored = server.dir.resolve("data/repos").resolve(REPOSITORY);
+
+            byte[] unverified = artifact(1);
+            put("com/example/unverified/1.0/unverified-1.0.jar", 200, unverified);
+            put("com/example/unverified/1.0/unverified-1.0.jar.sha1", 404, new byte[0]);
+            Result result = get(http, server, "com/example/unverified/1.0/unverified-1.0.jar");
+            check(result.status == 200 && Arrays.equals(result.body, unverified), "checksum 404: served", result);
+            check(Files.exists(stored.resolve("com/example/unverified/1.0/unverified-1.0.jar")), "checksum 404: stored unverified");
+
+            for (int status : new int[]{500, 429}) {
+                String name = "failing" + status;
+                String path = "com/example/" + name + "/1.0/" + name + "-1.0.jar";
+                byte[] content = artifact(status);
+                put(path, 200, content);
+                put(path + ".sha1", status, new byte[0]);
+
+                result = get(http, server, path);
+                check(result.status == 502, "checksum " + status + ": answered 502", result);
+                check(!Files.exists(stored.resolve(path)), "checksum " + status + ": not stored");
+
+                put(path + ".sha1", 200, LoadTestServer.sha1(content).getBytes());
+                result = get(http, server, path);
+                check(result.status == 200 && Arrays.equals(result.body, content), "checksum " + status + " recovered: served", result);
+                check(Files.exists(stored.resolve(path)) && Files.exists(stored.resolve(path + ".sha1")),
+                        "checksum " + status + " recovered: stored with checksum");
+            }
+
+            byte[] tampered = artifact(2);
+            put("com/example/tampered/1.0/tampered-1.0.jar", 200, tampered);
+            put("com/example/tampered/1.0/tampered-1.0.jar.sha1", 200, LoadTestServer.sha1(artifact(3)).getBytes());
+            result = get(http, server, "com/example/tampered/1.0/tampered-1.0.jar");
+            check(result.status != 200 || !Arrays.equals(result.body, tampered), "checksum mismatch: not served in full", result);
+            check(!Files.exists(stored.resolve("com/example/tampered/1.0/tampered-1.0.jar")), "checksum mismatch: not stored");
+
+            byte[] popular = artifact(4);
+            String popularPath = "com/example/popular/1.0/popular-1.0.jar";
+            put(popularPath, 200, popular);
+            put(popularPath + ".sha1", 200, LoadTestServer.sha1(popular).getBytes());
+            List<Future<Result>> burst = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < clients; i++) burst.add(executor.submit(() -> get(http, server, popularPath)));
+            }
+            int served = 0;
+            for (Future<Result> response : burst) {
+                Result r = response.get();
+                if (r.status == 200 && Arrays.equals(r.body, popular)) served++;
+            }
+            int downloads = upstreamRequests.getOrDefault(popularPath, new AtomicInteger()).get();
+            check(served == clients, "burst: " + served + " / " + clients + " served");
+            check(downloads == 1, "burst: " + downloads + " upstream downloads");
+
+            // The checksum fails slowly, so the whole burst waits on the first request's fetch.
+            byte[] flaky = artifact(5);
+            String flakyPath = "com/example/flaky/1.0/flaky-1.0.jar";
+            put(flakyPath, 200, flaky);
+            upstream.put(flakyPath + ".sha1", new Response(503, new byte[0], 1_000));
+            burst.clear();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < clients; i++) burst.add(executor.submit(() -> get(http, server, flakyPath)));
+            }
+            int badGateway = 0;
+            for (Future<Result> response : burst) {
+                if (response.get().status == 502) badGateway++;
+            }
+            check(badGateway == clients, "failed burst: " + badGateway + " / " + clients + " answered 502");
+
+            put(flakyPath + ".sha1", 200, LoadTestServer.sha1(flaky).getBytes());
+            result = get(http, server, flakyPath);
+            check(result.status == 200 && Arrays.equals(result.body, flaky), "failed burst recovered: served", result);
+
+            String metadataPath = "com/example/popular/maven-metadata.xml";
+            byte[] oldMetadata = "<metadata><version>1.0</version></metadata>".getBytes();
+            byte[] newMetadata = "<metadata><version>2.0</version></metadata>".getBytes();
+            put(metadataPath, 200, oldMetadata);
+            result = get(http, server, metadataPath);
+            check(result.status == 200 && Arrays.equals(result.body, oldMetadata), "metadata: served", result);
+
+            upstream.put(metadataPath, new Response(200, newMetadata, 3_000));
+            Thread.sleep(METADATA_TTL_SECONDS * 1_000L + 200);
+            long started = System.nanoTime();
+            result = get(http, server, metadataPath);
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            check(result.status == 200 && Arrays.equals(result.body, oldMetadata) && millis < 1_000,
+                    "metadata expired, upstream slow: stale copy served in " + millis + " ms", result);
+
+            Thread.sleep(4_000);
+            result = get(http, server, metadataPath);
+            check(result.status == 200 && Arrays.equals(result.body, newMetadata), "metadata: refreshed in the background", result);
+        } finally {
+            standIn.stop(0);
+        }
+
+        violations.forEach(violation -> System.out.println("  " + violation));
+        boolean passed = violations.isEmpty();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private record Result(int status, byte[] body) {
+        @Override
+        public String toString() {
+            return status < 0 ? "connection failed" : "status " + status + ", " + body.length + " bytes";
+        }
+    }
+
+    private static Result get(HttpClient http, LoadTestServer server, String path) {
+        try {
+            HttpResponse<byte[]> response = http.send(
+                    HttpRequest.newBuilder(server.file(REPOSITORY + "/" + path)).timeout(TIMEOUT).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            return new Result(response.statusCode(), response.body());
+        } catch (IOException e) {
+            // A download aborted short of its length.
+            return new Result(-1, new byte[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(-1, new byte[0]);
+        }
+    }
+
+    private void check(boolean passed, String what, Result result) {
+        check(passed, what + " (" + result + ")");
+    }
+
+    private void check(boolean passed, String what) {
+        System.out.printf("%-8s%s%n", passed ? "ok" : "FAILED", what);
+        if (!passed) violations.add(what);
+    }
+
+    private void put(String path, int status, byte[] body) {
+        upstream.put(path, new Response(status, body, 0));
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(1);
+        upstreamRequests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+        Response response = upstream.getOrDefault(path, new Response(404, new byte[0], 0));
+        if (response.delayMillis > 0) {
+            try {
+                Thread.sleep(response.delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response.body);
+        }
+    }
+
+    private static byte[] artifact(int seed) {
+        byte[] content = new byte[ARTIFACT_BYTES];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static void addProxy(Path repos, String url) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Path pageJson = repos.getParent().resolve("page.json");
+        ObjectNode page = (ObjectNode) mapper.readTree(pageJson.toFile());
+        ArrayNode repositories = page.withArray("repositories");
+        repositories.addObject()
+                .put("name", REPOSITORY)
+                .put("type", "proxy")
+                .put("url", url)
+                .put("metadata_ttl_seconds", METADATA_TTL_SECONDS);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(pageJson.toFile(), page);
+    }
+}
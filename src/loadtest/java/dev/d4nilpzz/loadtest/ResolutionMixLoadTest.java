@@ -0,0 +1,225 @@
+package dev.d4nilpzz.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays a realistic mix of traffic against a server holding a synthetic Maven repository, to gate
+ * releases on throughput and latency.
+ * <p>
+ * Closed-loop clients resolve artifacts the way Maven and Gradle do: metadata, poms, jars, their
+ * checksums, and lookups of classifiers that do not exist. Popular artifacts are requested more
+ * often than others. Some requests load the repository page and version badges, while uploader
+ * clients publish new versions concurrently. Throughput, p50/p99/p999 latency and the error rate
+ * are reported per kind of request.
+ * <p>
+ * Run with {@code mvn -P loadtest verify}. Tunables, as system properties:
+ * {@code loadtest.seconds}, {@code loadtest.clients}, {@code loadtest.uploaders},
+ * {@code loadtest.groups}, {@code loadtest.artifacts}, {@code loadtest.versions},
+ * {@code loadtest.maxErrorRate}. Exits with 1 if the error rate is above the maximum.
+ */
+public class ResolutionMixLoadTest {
+    private static final int MAX_JAR_BYTES = 2 * 1024 * 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final int seconds = Integer.getInteger("loadtest.seconds", 20);
+    private final int clients = Integer.getInteger("loadtest.clients", 32);
+    private final int uploaders = Integer.getInteger("loadtest.uploaders", 2);
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("loadtest.maxErrorRate", "0.001"));
+    private final LoadTestServer.SyntheticRepository repository = new LoadTestServer.SyntheticRepository(
+            Integer.getInteger("loadtest.groups", 10),
+            Integer.getInteger("loadtest.artifacts", 50),
+            Integer.getInteger("loadtest.versions", 5),
+            MAX_JAR_BYTES
+    );
+
+    private enum Kind {
+        METADATA, POM, JAR, CHECKSUM, MISSING, BADGE, PAGE, UPLOAD
+    }
+
+    /**
+     * Latencies and errors of one kind of request, shared by all clients.
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        synchronized void record(long nanos, boolean error) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+            if (error) errors++;
+        }
+
+        synchronized long[] sorted() {
+            long[] out = Arrays.copyOf(latencies, count);
+            Arrays.sort(out);
+            return out;
+        }
+
+        synchronized long errors() {
+            return errors;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new ResolutionMixLoadTest().run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.printf("Resolution mix load test: %ds, %d clients, %d uploaders, %d x %d artifacts x %d versions%n",
+                seconds, clients, uploaders, repository.groups(), repository.artifacts(), repository.versions());
+
+        long setup = System.nanoTime();
+        try (LoadTestServer server = LoadTestServer.start(List.of(), repository)) {
+            System.out.printf("Server up on port %d after %.1f s%n", server.port, (System.nanoTime() - setup) / 1e9);
+            String token = server.createToken("loadtest", "M");
+
+            Map<Kind, Recorder> recorders = new EnumMap<>(Kind.class);
+            for (Kind kind : Kind.values()) recorders.put(kind, new Recorder());
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            long started = System.nanoTime();
+            try (HttpClient http = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+                 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    tasks.add(executor.submit(() -> resolve(server, http, recorders, running)));
+                }
+                for (int i = 0; i < uploaders; i++) {
+                    int uploader = i;
+                    tasks.add(executor.submit(() -> upload(server, http, token, uploader, recorders, running)));
+                }
+
+                Thread.sleep(seconds * 1000L);
+                running.set(false);
+                for (Future<?> task : tasks) task.get();
+            }
+            double elapsed = (System.nanoTime() - started) / 1e9;
+
+            return report(recorders, elapsed);
+        }
+    }
+
+    /**
+     * Requests files like a build tool resolving dependencies, until stopped.
+     */
+    private void resolve(LoadTestServer server, HttpClient http, Map<Kind, Recorder> recorders, AtomicBoolean running) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+            // Squaring skews the choice towards low numbers, so some artifacts are much more popular.
+            int group = (int) (Math.pow(random.nextDouble(), 2) * repository.groups());
+            int artifact = (int) (Math.pow(random.nextDouble(), 2) * repository.artifacts());
+            int version = repository.versions() - 1 - (int) (Math.pow(random.nextDouble(), 2) * repository.versions());
+
+            int roll = random.nextInt(1000);
+            Kind kind;
+            String path;
+            int expected = 200;
+            if (roll < 150) {
+                kind = Kind.METADATA;
+                path = "/api/file/view/" + repository.artifactPath(group, artifact) + "/maven-metadata.xml";
+            } else if (roll < 400) {
+                kind = Kind.POM;
+                path = "/api/file/view/" + repository.filePath(group, artifact, version, ".pom");
+            } else if (roll < 600) {
+                kind = Kind.JAR;
+                path = "/api/file/view/" + repository.filePath(group, artifact, version, ".jar");
+            } else if (roll < 900) {
+                kind = Kind.CHECKSUM;
+                path = "/api/file/view/" + repository.filePath(group, artifact, version, random.nextBoolean() ? ".pom.sha1" : ".jar.sha1");
+            } else if (roll < 980) {
+                kind = Kind.MISSING;
+                path = "/api/file/view/" + repository.filePath(group, artifact, version, "-sources.jar");
+                expected = 404;
+            } else if (roll < 998) {
+                kind = Kind.BADGE;
+                path = "/api/badge/latest/" + repository.artifactPath(group, artifact);
+            } else {
+                kind = Kind.PAGE;
+                path = "/api/page/content";
+            }
+
+            long start = System.nanoTime();
+            boolean error;
+            try {
+                HttpResponse<Void> response = http.send(HttpRequest.newBuilder(server.uri(path)).timeout(TIMEOUT).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                error = response.statusCode() != expected;
+            } catch (Exception e) {
+                error = true;
+            }
+            recorders.get(kind).record(System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * Publishes new versions of an artifact of its own, one after another, until stopped.
+     */
+    private void upload(LoadTestServer server, HttpClient http, String token, int uploader,
+                        Map<Kind, Recorder> recorders, AtomicBoolean running) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int version = 0; running.get(); version++) {
+            byte[] jar = new byte[1024 + random.nextInt(256 * 1024)];
+            random.nextBytes(jar);
+
+            String artifactId = "uploaded" + uploader;
+            String versionName = "2." + version + ".0";
+            HttpRequest request = server.upload(token, "releases", "synthetic.uploads", artifactId, versionName,
+                    artifactId + "-" + versionName + ".jar", jar, TIMEOUT);
+
+            long start = System.nanoTime();
+            boolean error;
+            try {
+                error = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 201;
+            } catch (Exception e) {
+                error = true;
+            }
+            recorders.get(Kind.UPLOAD).record(System.nanoTime() - start, error);
+        }
+    }
+
+    private boolean report(Map<Kind, Recorder> recorders, double elapsed) {
+        System.out.println();
+        System.out.printf("%-10s %9s %10s %9s %9s %9s %8s%n", "request", "count", "req/s", "p50 ms", "p99 ms", "p999 ms", "errors");
+
+        long total = 0;
+        long errors = 0;
+        List<Long> all = new ArrayList<>();
+        for (Map.Entry<Kind, Recorder> entry : recorders.entrySet()) {
+            long[] latencies = entry.getValue().sorted();
+            long kindErrors = entry.getValue().errors();
+            total += latencies.length;
+            errors += kindErrors;
+            for (long latency : latencies) all.add(latency);
+            print(entry.getKey().name().toLowerCase(Locale.ROOT), latencies, kindErrors, elapsed);
+        }
+        print("total", all.stream().mapToLong(Long::longValue).sorted().toArray(), errors, elapsed);
+
+        double errorRate = total == 0 ? 1 : (double) errors / total;
+        boolean passed = total > 0 && errorRate <= maxErrorRate;
+        System.out.printf("%nError rate %.4f%% (maximum %.4f%%): %s%n", errorRate * 100, maxErrorRate * 100,
+                passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private static void print(String name, long[] sorted, long errors, double elapsed) {
+        System.out.printf("%-10s %9d %10.1f %9.2f %9.2f %9.2f %8d%n", name, sorted.length, sorted.length / elapsed,
+                percentileMs(sorted, 0.50), percentileMs(sorted, 0.99), percentileMs(sorted, 0.999), errors);
+    }
+
+    private static double percentileMs(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
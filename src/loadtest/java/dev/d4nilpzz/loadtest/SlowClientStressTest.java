@@ -0,0 +1,124 @@
+package dev.d4nilpzz.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that slow downloads do not cost a request thread each.
+ * <p>
+ * A {@link LoadTestServer} with a small thread pool and asynchronous downloads enabled is hit by
+ * many clients downloading large jars at a trickle. Meanwhile a probe keeps fetching small poms.
+ * Every slow download must arrive complete, the probe must keep being answered, and the server's
+ * thread count is reported at its peak.
+ * <p>
+ * Run with {@code mvn -P loadtest verify}. Tunables, as system properties:
+ * {@code loadtest.stressClients}, {@code loadtest.maxThreads}. Exits with 1 if a check fails.
+ */
+public class SlowClientStressTest {
+    private static final int LARGE_FILES = 4;
+    private static final int LARGE_FILE_BYTES = 2 * 1024 * 1024;
+
+    private final int slowClients = Integer.getInteger("loadtest.stressClients", 1000);
+    private final int maxThreads = Integer.getInteger("loadtest.maxThreads", 32);
+
+    private record Probe(long[] latencies, long failed) {
+        double percentileMs(double p) {
+            if (latencies.length == 0) return Double.NaN;
+            int index = (int) Math.min(latencies.length - 1, Math.ceil(p * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new SlowClientStressTest().run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.printf("Slow client stress test: %d slow clients, pool of %d threads%n", slowClients, maxThreads);
+
+        List<String> properties = List.of(
+                "server.max_threads=" + maxThreads,
+                "server.connection_idle_timeout_ms=120000",
+                "downloads.async=true",
+                "downloads.async_min_kb=1024"
+        );
+        try (LoadTestServer server = LoadTestServer.start(properties, LARGE_FILES, LARGE_FILE_BYTES)) {
+            int idleThreads = server.threads();
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicInteger peakThreads = new AtomicInteger(idleThreads);
+            Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+                while (running.get()) {
+                    peakThreads.accumulateAndGet(server.threads(), Math::max);
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+
+            long started = System.nanoTime();
+            List<Future<Long>> downloads = new ArrayList<>();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < slowClients; i++) {
+                    String path = LoadTestServer.largeFile(i % LARGE_FILES);
+                    downloads.add(clients.submit(() -> server.trickle(path, 16 * 1024, 50, () -> true)));
+                }
+
+                Probe probe = probe(server, downloads);
+
+                int complete = 0;
+                for (Future<Long> download : downloads) {
+                    if (download.get() == LARGE_FILE_BYTES) complete++;
+                }
+                double seconds = (System.nanoTime() - started) / 1e9;
+                running.set(false);
+                sampler.join();
+
+                System.out.printf("Slow downloads  : %d / %d complete in %.1f s%n", complete, slowClients, seconds);
+                System.out.printf("Server threads  : %d idle, %d peak%n", idleThreads, peakThreads.get());
+                System.out.printf("Probe requests  : %d, p50 %.2f ms, p99 %.2f ms, %d failed%n",
+                        probe.latencies.length, probe.percentileMs(0.50), probe.percentileMs(0.99), probe.failed);
+
+                boolean passed = complete == slowClients && probe.failed == 0;
+                System.out.println(passed ? "PASSED" : "FAILED");
+                return passed;
+            }
+        }
+    }
+
+    /**
+     * Fetches small files one after another until every slow download has finished.
+     *
+     * @return sorted latencies in nanoseconds and the number of failed requests
+     */
+    private static Probe probe(LoadTestServer server, List<Future<Long>> downloads) {
+        List<Long> latencies = new ArrayList<>();
+        long failed = 0;
+
+        try (HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build()) {
+            while (!downloads.stream().allMatch(Future::isDone)) {
+                String path = LoadTestServer.smallFile(ThreadLocalRandom.current().nextInt(LoadTestServer.SMALL_FILES));
+                long start = System.nanoTime();
+                try {
+                    int status = http.send(HttpRequest.newBuilder(server.file(path)).timeout(Duration.ofSeconds(5)).build(),
+                            HttpResponse.BodyHandlers.discarding()).statusCode();
+                    if (status != 200) failed++;
+                } catch (Exception e) {
+                    failed++;
+                }
+                latencies.add(System.nanoTime() - start);
+            }
+        }
+
+        return new Probe(latencies.stream().mapToLong(Long::longValue).sorted().toArray(), failed);
+    }
+}
@@ -3,18 +3,49 @@ package dev.d4nilpzz;
 import dev.d4nilpzz.auth.TokenService;
 import dev.d4nilpzz.console.CommandConsole;
 import dev.d4nilpzz.controllers.*;
+import dev.d4nilpzz.metrics.AccessLog;
+import dev.d4nilpzz.metrics.LiveStats;
+import dev.d4nilpzz.metrics.Metrics;
+import dev.d4nilpzz.metrics.OtlpFileExporter;
+import dev.d4nilpzz.metrics.Span;
+import dev.d4nilpzz.metrics.Tracing;
 import dev.d4nilpzz.params.ParamParser;
+import dev.d4nilpzz.proxy.ProxyRepositories;
+import dev.d4nilpzz.repos.GroupRepositories;
+import dev.d4nilpzz.repos.PageConfigStore;
+import dev.d4nilpzz.repos.RepositoryEvents;
+import dev.d4nilpzz.search.ArtifactIndex;
+import dev.d4nilpzz.server.AsyncFileStreamer;
+import dev.d4nilpzz.server.BandwidthLimiter;
+import dev.d4nilpzz.server.ClientAddress;
+import dev.d4nilpzz.server.RateLimiter;
+import dev.d4nilpzz.server.UploadAdmission;
+import dev.d4nilpzz.server.ServerSettings;
+import dev.d4nilpzz.storage.ColdReads;
+import dev.d4nilpzz.storage.GzipVariants;
+import dev.d4nilpzz.storage.HotFileCache;
+import dev.d4nilpzz.storage.MappedFileCache;
+import dev.d4nilpzz.storage.MissCache;
+import dev.d4nilpzz.storage.StaticAssets;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class Repossify {
     public static final String VERSION = "1.0.0";
     private static final Logger LOGGER = LoggerFactory.getLogger(Repossify.class);
+    private static final String TRACE_ATTRIBUTE = "trace.span";
 
     public static void main(String[] args)
     {
@@ -47,41 +78,244 @@ public class Repossify {
             hostname = "localhost";
         }
 
+        RepossifyConfig config;
         try {
-            RepossifyConfig cfg = new RepossifyConfig(Paths.get("./repossify.properties"));
+            config = new RepossifyConfig(Paths.get("./repossify.properties"));
+        } catch (RuntimeException e) {
+            config = RepossifyConfig.empty();
+        }
 
+        try {
             port = Integer.parseInt(
-                    args.port != null ? args.port : cfg.get("port", String.valueOf(port))
+                    args.port != null ? args.port : config.get("port", String.valueOf(port))
             );
 
             hostname = args.hostname != null
                     ? args.hostname
-                    : cfg.get("hostname", hostname);
+                    : config.get("hostname", hostname);
 
         } catch (Exception ignored) {
         }
 
+        Metrics metrics = new Metrics();
         TokenService tokenService;
+        PageConfigStore pageConfig;
+        StaticAssets staticAssets;
         try {
-            tokenService = new TokenService("jdbc:sqlite:data/repossify.db");
+            tokenService = new TokenService("jdbc:sqlite:data/repossify.db", metrics);
+            pageConfig = new PageConfigStore();
+            staticAssets = new StaticAssets();
         } catch (Exception e) {
             LOGGER.error(e.getMessage());
             return;
         }
+        pageConfig.startWatching();
+
+        RepositoryEvents events = new RepositoryEvents();
+        ArtifactIndex artifactIndex = new ArtifactIndex();
+        artifactIndex.rebuild();
+        events.subscribe(artifactIndex);
+        // Files copied in without the API, by rsync or a backup restore, are only indexed by a rebuild.
+        long rebuildMinutes = config.getLong("search.rebuild_interval_minutes", 15);
+        if (rebuildMinutes > 0) {
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("index-rebuild").daemon().factory())
+                    .scheduleWithFixedDelay(artifactIndex::rebuild, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+        }
+
+        GzipVariants gzipVariants = new GzipVariants();
+        events.subscribe(gzipVariants);
+        gzipVariants.backfill();
+
+        HotFileCache hotCache = new HotFileCache(
+                config.getLong("hot_cache.max_mb", 64) * 1024 * 1024,
+                config.getLong("hot_cache.max_file_kb", 256) * 1024,
+                gzipVariants
+        );
+        events.subscribe(hotCache);
+
+        MissCache missCache = new MissCache(
+                config.getLong("miss_cache.ttl_seconds", 30) * 1000,
+                config.getInt("miss_cache.max_entries", 100_000)
+        );
+        events.subscribe(missCache);
+
+        GroupRepositories groupRepositories = new GroupRepositories(pageConfig);
+        events.subscribe(groupRepositories);
+
+        ColdReads coldReads = new ColdReads(config.getLong("downloads.coalesce_max_kb", 1024) * 1024);
+        events.subscribe(coldReads);
+
+        MappedFileCache mappedFiles = new MappedFileCache(
+                config.getBoolean("downloads.mmap", true) ? config.getLong("downloads.mmap_min_mb", 8) * 1024 * 1024 : 0,
+                config.getLong("downloads.mmap_max_mb", 4096) * 1024 * 1024
+        );
+        events.subscribe(mappedFiles);
+
+        AsyncFileStreamer streamer = new AsyncFileStreamer(
+                config.getBoolean("downloads.async", true),
+                config.getLong("downloads.async_min_kb", 1024) * 1024,
+                config.getInt("downloads.async_buffer_kb", 64) * 1024,
+                config.getInt("downloads.async_io_threads", 4)
+        );
+
+        registerMetrics(metrics, artifactIndex, hotCache, missCache, coldReads, mappedFiles, streamer);
+
+        ClientAddress clientAddress;
+        try {
+            clientAddress = new ClientAddress(addresses(config.get("server.trusted_proxies", "")));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid server.trusted_proxies, forwarded addresses are ignored: {}", e.getMessage());
+            clientAddress = new ClientAddress(Set.of());
+        }
+        ClientAddress clients = clientAddress;
+
+        AccessLog accessLog = null;
+        if (config.getBoolean("access_log.enabled", true)) {
+            accessLog = new AccessLog(
+                    Paths.get(config.get("access_log.file", "data/logs/access.log")),
+                    config.getLong("access_log.max_mb", 64) * 1024 * 1024,
+                    config.getInt("access_log.max_files", 5),
+                    config.getInt("access_log.buffer_records", 16_384),
+                    clients
+            );
+            accessLog.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close, "access-log-shutdown"));
+            metrics.counter("repossify_access_log_written_total", "Requests written to the access log.", accessLog::written);
+            metrics.counter("repossify_access_log_dropped_total", "Requests left out of the access log because its buffer was full.", accessLog::dropped);
+        }
+        AccessLog requestLog = accessLog;
 
+        double sampleRatio = 0;
+        try {
+            sampleRatio = Double.parseDouble(config.get("tracing.sample_ratio", "0").trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid tracing.sample_ratio, tracing is disabled");
+        }
+        if (sampleRatio > 0) {
+            OtlpFileExporter exporter = new OtlpFileExporter(
+                    Paths.get(config.get("tracing.file", "data/logs/traces.jsonl")),
+                    config.getLong("tracing.max_mb", 64) * 1024 * 1024,
+                    config.getInt("tracing.queue_spans", 8_192)
+            );
+            exporter.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(exporter::close, "trace-export-shutdown"));
+            Tracing.configure(sampleRatio, exporter);
+            metrics.counter("repossify_tracing_spans_exported_total", "Spans written to the trace file.", exporter::exported);
+            metrics.counter("repossify_tracing_spans_dropped_total", "Spans dropped because the export queue was full.", exporter::dropped);
+        }
+
+        ServerSettings serverSettings = ServerSettings.from(config, args);
+        RateLimiter rateLimiter = RateLimiter.from(config, clients);
+        metrics.counter("repossify_rate_limited_total", "Requests rejected by rate limits.", rateLimiter::rejected);
+        metrics.gauge("repossify_rate_limit_buckets", "Clients tracked by rate limits.", rateLimiter::size);
+        BandwidthLimiter bandwidth = BandwidthLimiter.from(config);
+        metrics.counter("repossify_bandwidth_delayed_chunks_total", "Download chunks held back by bandwidth caps.", bandwidth::delayed);
+        metrics.gauges("repossify_bandwidth_bytes_per_second", "Download throughput over the last second, by bandwidth bucket.", "bucket",
+                () -> bandwidth.buckets().stream().collect(Collectors.toMap(
+                        b -> BandwidthLimiter.name(b.scope()) + ":" + b.name(), BandwidthLimiter.BucketStats::bytesPerSecond)));
+        UploadAdmission admission = UploadAdmission.from(config);
+        registerAdmissionMetrics(metrics, admission);
+        LiveStats liveStats = new LiveStats(metrics, serverSettings::virtualThreads);
+        liveStats.cache("hot", hotCache::hits, hotCache::misses);
+        liveStats.cache("mapped", mappedFiles::hits, mappedFiles::misses);
+        liveStats.cache("miss", missCache::hits, null);
+        liveStats.start();
         Javalin app = Javalin.create(cfg ->{
-            cfg.staticFiles.add("/static");
             cfg.showJavalinBanner = false;
-        }).start(port);
+            // Only the stored gzip variants are sent compressed; nothing is compressed per request.
+            cfg.http.disableCompression();
+            serverSettings.apply(cfg);
+            cfg.requestLogger.http((ctx, ms) -> {
+                metrics.recordRequest(ctx, ms);
+                if (requestLog != null) requestLog.record(ctx, ms);
+                endTrace(ctx);
+            });
+        });
 
-        new BadgeController(app);
-        new PageController(tokenService).registerRoutes(app);
-        new ConfigController(tokenService).registerRoutes(app);
+        // Registered first, so the spans of the other before handlers, such as authentication, belong to the request.
+        app.before(ctx -> {
+            metrics.requestStarted();
+            Span span = Tracing.startRequest(ctx.method().name(), ctx.path());
+            if (span.isSampled()) ctx.attribute(TRACE_ATTRIBUTE, span);
+        });
+        app.before(rateLimiter::checkAddress);
+        app.after(ctx -> Tracing.detach());
+
+        new StaticController(staticAssets).registerRoutes(app);
+        new BadgeController(app, events);
+        new PageController(tokenService, pageConfig).registerRoutes(app);
+        new ConfigController(tokenService, pageConfig).registerRoutes(app);
         new AuthController(tokenService).registerRoutes(app);
-        new FileController(tokenService).registerRoutes(app);
+        // After the authentication before handler, which sets the token.
+        app.before(rateLimiter::checkToken);
+        new FileController(tokenService, events, gzipVariants, hotCache, missCache, artifactIndex,
+                new ProxyRepositories(pageConfig, events), groupRepositories, coldReads, mappedFiles, streamer, bandwidth, admission, metrics).registerRoutes(app);
+        new SearchController(tokenService, pageConfig, artifactIndex).registerRoutes(app);
+
+        if (config.getBoolean("metrics.enabled", true)) {
+            // Token only by default: behind a reverse proxy on the same host every client is loopback.
+            Set<String> allowed = addresses(config.get("metrics.allowed_addresses", ""));
+            try {
+                new MetricsController(metrics, liveStats, config.get("metrics.token", "").trim(), allowed, clients).registerRoutes(app);
+            } catch (Exception e) {
+                LOGGER.error("Invalid metrics.allowed_addresses, metrics are disabled: {}", e.getMessage());
+            }
+        }
 
-        new Thread(new CommandConsole(tokenService), "console").start();
+        app.start(port);
+
+        new Thread(new CommandConsole(tokenService, artifactIndex, hotCache, missCache, coldReads, mappedFiles, streamer, liveStats, rateLimiter, bandwidth, admission), "console").start();
+
+        LOGGER.info("Running on http://{}:{} with {}", hostname, port, serverSettings);
+    }
+
+    private static Set<String> addresses(String list) {
+        return Arrays.stream(list.split(","))
+                .map(String::trim)
+                .filter(a -> !a.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private static void endTrace(Context ctx) {
+        Span span = ctx.attribute(TRACE_ATTRIBUTE);
+        if (span == null) return;
+        span.rename(ctx.method().name() + " " + Metrics.route(ctx))
+                .attribute("http.status_code", ctx.statusCode())
+                .close();
+    }
+
+    private static void registerMetrics(Metrics metrics, ArtifactIndex artifactIndex, HotFileCache hotCache,
+                                        MissCache missCache, ColdReads coldReads, MappedFileCache mappedFiles,
+                                        AsyncFileStreamer streamer) {
+        metrics.counter("repossify_hot_cache_hits_total", "Downloads answered from the hot file cache.", hotCache::hits);
+        metrics.counter("repossify_hot_cache_misses_total", "Hot file cache lookups that had to read the disk.", hotCache::misses);
+        metrics.counter("repossify_hot_cache_coalesced_total", "Hot file cache misses that shared a concurrent read.", hotCache::coalesced);
+        metrics.gauge("repossify_hot_cache_hit_ratio", "Hot file cache hits per lookup.", hotCache::hitRatio);
+        metrics.gauge("repossify_hot_cache_resident_bytes", "Bytes held by the hot file cache.", hotCache::residentBytes);
+        metrics.counter("repossify_miss_cache_hits_total", "Lookups answered as missing by the miss cache.", missCache::hits);
+        metrics.gauge("repossify_miss_cache_entries", "Paths remembered as missing.", missCache::size);
+        metrics.counter("repossify_mapped_files_hits_total", "Downloads served from an existing file mapping.", mappedFiles::hits);
+        metrics.counter("repossify_mapped_files_misses_total", "Files that had to be mapped.", mappedFiles::misses);
+        metrics.gauge("repossify_mapped_files_bytes", "Bytes of files kept memory-mapped.", mappedFiles::mappedBytes);
+        metrics.counter("repossify_cold_reads_shared_total", "Downloads that shared a concurrent disk read.", coldReads::shared);
+        metrics.gauge("repossify_async_downloads_active", "Asynchronous downloads in progress.", streamer::active);
+        metrics.counter("repossify_async_downloads_completed_total", "Asynchronous downloads completed.", streamer::completed);
+        metrics.counter("repossify_async_downloads_aborted_total", "Asynchronous downloads aborted.", streamer::aborted);
+        metrics.gauge("repossify_search_index_artifacts", "Artifacts in the search index.", artifactIndex::size);
+    }
 
-        LOGGER.info("Running on http://{}:{}", hostname, port);
+    private static void registerAdmissionMetrics(Metrics metrics, UploadAdmission admission) {
+        metrics.counter("repossify_upload_admitted_total", "Upload slots handed out, global and per repository.", admission::admitted);
+        metrics.counter("repossify_upload_queued_total", "Uploads that had to wait for a slot.", admission::queued);
+        metrics.counter("repossify_upload_rejected_total", "Uploads rejected with 503 because no slot was free.", admission::rejected);
+        metrics.gauge("repossify_upload_active", "Uploads holding a global slot.", () -> admission.global().active());
+        metrics.gauge("repossify_upload_queued_small", "Small files waiting for a global slot.", () -> admission.global().queuedSmall());
+        metrics.gauge("repossify_upload_queued_large", "Other files waiting for a global slot.", () -> admission.global().queuedLarge());
+        metrics.gauges("repossify_upload_repository_active", "Uploads holding a repository slot, by repository.", "repo",
+                () -> admission.repositories().entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().active())));
+        metrics.gauges("repossify_upload_repository_queued", "Uploads waiting for a repository slot, by repository.", "repo",
+                () -> admission.repositories().entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().queuedSmall() + e.getValue().queuedLarge())));
     }
 }
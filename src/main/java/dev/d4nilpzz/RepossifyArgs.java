@@ -12,4 +12,7 @@ public class RepossifyArgs {
 
     @Param(names = {"--hostname", "-h"}, description = "Override hostname from configuration")
     public String hostname;
+
+    @Param(names = {"--execution-mode"}, description = "Override request execution mode (platform or virtual)")
+    public String executionMode;
 }
@@ -8,6 +8,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class RepossifyConfig {
     private static final Logger LOGGER = LoggerFactory.getLogger(RepossifyConfig.class);
@@ -22,7 +24,49 @@ public class RepossifyConfig {
         }
     }
 
+    private RepossifyConfig() {
+    }
+
+    /**
+     * @return a configuration without any properties, so every lookup yields its default
+     */
+    public static RepossifyConfig empty() {
+        return new RepossifyConfig();
+    }
+
     public String get(String key, String def) {
         return properties.getProperty(key, def);
     }
+
+    /**
+     * @return the keys starting with the prefix, sorted
+     */
+    public Set<String> keys(String prefix) {
+        Set<String> keys = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) keys.add(key);
+        }
+        return keys;
+    }
+
+    public long getLong(String key, long def) {
+        String value = properties.getProperty(key);
+        if (value == null) return def;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value for {}: '{}', using {}", key, value, def);
+            return def;
+        }
+    }
+
+    public int getInt(String key, int def) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, getLong(key, def)));
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        String value = properties.getProperty(key);
+        return value == null ? def : Boolean.parseBoolean(value.trim());
+    }
 }
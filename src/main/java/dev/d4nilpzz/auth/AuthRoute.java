@@ -35,16 +35,23 @@ public class AuthRoute {
 
         if (token == null) throw new UnauthorizedResponse("Invalid token");
 
-        boolean isManager = token.permissions.stream()
-                .anyMatch(p -> p.equalsIgnoreCase("M") || p.equalsIgnoreCase("MANAGER"));
+        if (!canWrite(token, route)) throw new UnauthorizedResponse("Token does not have write permission for this route");
 
-        if (!isManager) {
-            boolean hasWrite = token.routes.stream()
-                    .anyMatch(r -> route.startsWith(r.path) && r.routePermission.equalsIgnoreCase("w"));
+        return token;
+    }
 
-            if (!hasWrite) throw new UnauthorizedResponse("Token does not have write permission for this route");
-        }
+    /**
+     * Comprueba si un token es manager o tiene permiso de escritura en una ruta.
+     * @param token AccessToken ya autenticado
+     * @param route Ruta que quieres proteger
+     * @return true si el token puede escribir en la ruta
+     */
+    public static boolean canWrite(AccessToken token, String route) {
+        boolean isManager = token.permissions.stream()
+                .anyMatch(p -> p.equalsIgnoreCase("M") || p.equalsIgnoreCase("MANAGER"));
+        if (isManager) return true;
 
-        return token;
+        return token.routes.stream()
+                .anyMatch(r -> route.startsWith(r.path) && r.routePermission.equalsIgnoreCase("w"));
     }
 }
@@ -1,5 +1,8 @@
 package dev.d4nilpzz.auth;
 
+import dev.d4nilpzz.metrics.Metrics;
+import dev.d4nilpzz.metrics.Span;
+import dev.d4nilpzz.metrics.Tracing;
 import org.mindrot.jbcrypt.BCrypt;
 
 import java.sql.*;
@@ -16,6 +19,7 @@ import java.util.UUID;
 public class TokenService {
 
     private final String dbUrl;
+    private final Metrics metrics;
 
     /**
      * Constructs a TokenService instance with the given SQLite database URL.
@@ -25,7 +29,19 @@ public class TokenService {
      * @throws SQLException if database initialization fails
      */
     public TokenService(String dbUrl) throws SQLException {
+        this(dbUrl, new Metrics());
+    }
+
+    /**
+     * Constructs a TokenService that records token lookup timings.
+     *
+     * @param dbUrl   JDBC URL of the SQLite database
+     * @param metrics receives the duration of token lookups, BCrypt checks and queries
+     * @throws SQLException if database initialization fails
+     */
+    public TokenService(String dbUrl, Metrics metrics) throws SQLException {
         this.dbUrl = dbUrl;
+        this.metrics = metrics;
         initDb();
     }
 
@@ -255,24 +271,41 @@ public class TokenService {
      * @throws SQLException if a database error occurs
      */
     public AccessToken getTokenBySecret(String secret) throws SQLException {
+        long start = System.nanoTime();
+        Span span = Tracing.start("auth.token_lookup");
+        int checks = 0;
         try (Connection conn = DriverManager.getConnection(dbUrl)) {
+            long query = System.nanoTime();
             PreparedStatement ps = conn.prepareStatement("SELECT * FROM access_tokens");
             ResultSet rs = ps.executeQuery();
+            long queryNanos = 0;
             while (rs.next()) {
                 String hash = rs.getString("secret");
-                if (BCrypt.checkpw(secret, hash)) {
+                queryNanos += System.nanoTime() - query;
+
+                long check = System.nanoTime();
+                boolean matches = BCrypt.checkpw(secret, hash);
+                metrics.recordBcrypt(System.nanoTime() - check);
+                checks++;
+                query = System.nanoTime();
+
+                if (matches) {
+                    metrics.recordQuery("select_tokens", queryNanos);
                     int id = rs.getInt("id");
                     String type = rs.getString("type");
                     String name = rs.getString("name");
                     String desc = rs.getString("description");
 
+                    long permissionsQuery = System.nanoTime();
                     List<String> permissions = new ArrayList<>();
                     PreparedStatement permStmt = conn.prepareStatement(
                             "SELECT permission FROM token_permissions WHERE token_id=?");
                     permStmt.setInt(1, id);
                     ResultSet permRs = permStmt.executeQuery();
                     while (permRs.next()) permissions.add(permRs.getString("permission"));
+                    metrics.recordQuery("select_permissions", System.nanoTime() - permissionsQuery);
 
+                    long routesQuery = System.nanoTime();
                     List<AccessToken.Route> routes = new ArrayList<>();
                     PreparedStatement routeStmt = conn.prepareStatement(
                             "SELECT path, route_permission FROM token_routes WHERE token_id=?");
@@ -284,10 +317,16 @@ public class TokenService {
                         r.routePermission = routeRs.getString("route_permission");
                         routes.add(r);
                     }
+                    metrics.recordQuery("select_routes", System.nanoTime() - routesQuery);
 
+                    span.attribute("auth.token", name);
                     return new AccessToken(id, type, name, hash, desc, permissions, routes);
                 }
             }
+            metrics.recordQuery("select_tokens", queryNanos + System.nanoTime() - query);
+        } finally {
+            metrics.recordAuthentication(System.nanoTime() - start);
+            span.attribute("auth.bcrypt_checks", checks).close();
         }
         return null;
     }
@@ -3,6 +3,16 @@ package dev.d4nilpzz.console;
 import dev.d4nilpzz.Repossify;
 import dev.d4nilpzz.auth.AccessToken;
 import dev.d4nilpzz.auth.TokenService;
+import dev.d4nilpzz.metrics.LiveStats;
+import dev.d4nilpzz.search.ArtifactIndex;
+import dev.d4nilpzz.server.AsyncFileStreamer;
+import dev.d4nilpzz.server.BandwidthLimiter;
+import dev.d4nilpzz.server.RateLimiter;
+import dev.d4nilpzz.server.UploadAdmission;
+import dev.d4nilpzz.storage.ColdReads;
+import dev.d4nilpzz.storage.HotFileCache;
+import dev.d4nilpzz.storage.MappedFileCache;
+import dev.d4nilpzz.storage.MissCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,15 +29,49 @@ import java.util.*;
 public class CommandConsole implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommandConsole.class);
     private final TokenService tokenService;
+    private final ArtifactIndex artifactIndex;
+    private final HotFileCache hotCache;
+    private final MissCache missCache;
+    private final ColdReads coldReads;
+    private final MappedFileCache mappedFiles;
+    private final AsyncFileStreamer streamer;
+    private final LiveStats liveStats;
+    private final RateLimiter rateLimiter;
+    private final BandwidthLimiter bandwidth;
+    private final UploadAdmission admission;
+    private Scanner scanner;
     private volatile boolean running = true;
 
     /**
      * Constructs a CommandConsole instance with the given TokenService.
      *
-     * @param tokenService service handling token operations in the database
+     * @param tokenService  service handling token operations in the database
+     * @param artifactIndex search index whose footprint is reported by the performance command
+     * @param hotCache      file cache whose hit ratio is reported by the performance command
+     * @param missCache     negative lookup cache reported by the performance command
+     * @param coldReads     coalesced disk reads reported by the performance command
+     * @param mappedFiles   memory-mapped large files reported by the performance command
+     * @param streamer      asynchronous downloads reported by the performance command
+     * @param liveStats     per-second rates shown by the top command
+     * @param rateLimiter   rate limits shown and changed by the rate_limit command
+     * @param bandwidth     bandwidth caps shown and changed by the bandwidth command
+     * @param admission     upload admission queues reported by the performance command
      */
-    public CommandConsole(TokenService tokenService) {
+    public CommandConsole(TokenService tokenService, ArtifactIndex artifactIndex, HotFileCache hotCache,
+                          MissCache missCache, ColdReads coldReads, MappedFileCache mappedFiles,
+                          AsyncFileStreamer streamer, LiveStats liveStats, RateLimiter rateLimiter,
+                          BandwidthLimiter bandwidth, UploadAdmission admission) {
         this.tokenService = tokenService;
+        this.artifactIndex = artifactIndex;
+        this.hotCache = hotCache;
+        this.missCache = missCache;
+        this.coldReads = coldReads;
+        this.mappedFiles = mappedFiles;
+        this.streamer = streamer;
+        this.liveStats = liveStats;
+        this.rateLimiter = rateLimiter;
+        this.bandwidth = bandwidth;
+        this.admission = admission;
     }
 
     /**
@@ -36,11 +80,13 @@ public class CommandConsole implements Runnable {
      */
     @Override
     public void run() {
-        Scanner scanner = new Scanner(System.in);
+        scanner = new Scanner(System.in);
         LOGGER.info("Command console started. Type 'help' or '0' for commands.");
 
         while (running) {
             System.out.print("> ");
+            // No standard input (e.g. started as a background service), the server keeps running.
+            if (!scanner.hasNextLine()) break;
             String input = scanner.nextLine().trim();
             handleCommand(input);
         }
@@ -77,6 +123,9 @@ public class CommandConsole implements Runnable {
                         ➜ [9]  token_add_route <tokenName> <path> <r/w>
                         ➜ [10] token_remove_route <tokenName> <path>
                         ➜ [11] performance
+                        ➜ [12] top
+                        ➜ [13] rate_limit [<download|upload|api> <ip|token> <requests/s> [<burst>]]
+                        ➜ [14] bandwidth [<repository|token> <name|*> <KB/s>]
                         """);
                 break;
             case "1":
@@ -206,6 +255,18 @@ public class CommandConsole implements Runnable {
             case "performance":
                 performance();
                 break;
+            case "12":
+            case "top":
+                top();
+                break;
+            case "13":
+            case "rate_limit":
+                rateLimit(args);
+                break;
+            case "14":
+            case "bandwidth":
+                bandwidth(args);
+                break;
 
             default:
                 LOGGER.warn("Unknown command. Type 'help' to see available commands.");
@@ -225,20 +286,155 @@ public class CommandConsole implements Runnable {
         long totalMem = rt.totalMemory() / 1024 / 1024;
 
         int cpuUsage = (int) Math.round(os.getProcessCpuLoad() * 100);
+        long indexKb = artifactIndex.estimatedBytes() / 1024;
+        UploadAdmission.GateStats uploads = admission.global();
 
         LOGGER.info("""
             Performance stats:
             ➜ CPU usage       : {} %
             ➜ CPU cores       : {}
             ➜ Memory used     : {} / {} MB
+            ➜ Search index    : {} artifacts, ~{} KB
+            ➜ Hot file cache  : {} files, {} / {} KB, {} % hits
+            ➜ Miss cache      : {} paths, {} hits
+            ➜ Mapped files    : {} files, {} MB, {} hits, {} maps
+            ➜ Coalesced reads : {} hot cache, {} cold
+            ➜ Async downloads : {} active, {} completed, {} aborted
+            ➜ Upload slots    : {} / {} active, {} small + {} large queued, {} waited, {} rejected
             """,
                 cpuUsage,
                 rt.availableProcessors(),
                 usedMem,
-                totalMem
+                totalMem,
+                artifactIndex.size(),
+                indexKb,
+                hotCache.size(),
+                hotCache.residentBytes() / 1024,
+                hotCache.maxBytes() / 1024,
+                Math.round(hotCache.hitRatio() * 100),
+                missCache.size(),
+                missCache.hits(),
+                mappedFiles.size(),
+                mappedFiles.mappedBytes() / 1024 / 1024,
+                mappedFiles.hits(),
+                mappedFiles.misses(),
+                hotCache.coalesced(),
+                coldReads.shared(),
+                streamer.active(),
+                streamer.completed(),
+                streamer.aborted(),
+                uploads.active(),
+                uploads.limit() == 0 ? "unlimited" : uploads.limit(),
+                uploads.queuedSmall(),
+                uploads.queuedLarge(),
+                admission.queued(),
+                admission.rejected()
         );
     }
 
+    /**
+     * Redraws the live statistics every second, like {@code top}, until Enter is pressed.
+     */
+    private void top() {
+        Thread screen = Thread.ofPlatform().name("console-top").daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Clears the terminal and moves the cursor home before each frame.
+                System.out.print("\033[H\033[2J" + LiveStats.render(liveStats.latest())
+                        + "\nPress Enter to return to the console.\n");
+                System.out.flush();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        if (scanner.hasNextLine()) scanner.nextLine();
+        screen.interrupt();
+    }
+
+    /**
+     * Handles the 'rate_limit' command. Without arguments, lists the limits; otherwise sets the
+     * limit of a route class and scope, effective from the next request. A rate of 0 removes it.
+     *
+     * @param args command arguments: [<class> <scope> <requests/s> [<burst>]]
+     */
+    private void rateLimit(String[] args) {
+        if (args.length == 0) {
+            StringBuilder out = new StringBuilder("Rate limits:");
+            for (RateLimiter.RouteClass routeClass : RateLimiter.RouteClass.values()) {
+                for (RateLimiter.Scope scope : RateLimiter.Scope.values()) {
+                    out.append(String.format("%n➜ %-8s per %-5s : %s", RateLimiter.name(routeClass),
+                            RateLimiter.name(scope), rateLimiter.limit(routeClass, scope)));
+                }
+            }
+            out.append(String.format("%n➜ rejected          : %d, %d clients tracked", rateLimiter.rejected(), rateLimiter.size()));
+            LOGGER.info(out.toString());
+            return;
+        }
+
+        if (args.length < 3) {
+            LOGGER.warn("Usage: rate_limit <download|upload|api> <ip|token> <requests/s> [<burst>]");
+            return;
+        }
+
+        try {
+            RateLimiter.RouteClass routeClass = RateLimiter.RouteClass.valueOf(args[0].toUpperCase(Locale.ROOT));
+            RateLimiter.Scope scope = RateLimiter.Scope.valueOf(args[1].toUpperCase(Locale.ROOT));
+            double rate = Double.parseDouble(args[2]);
+            int burst = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+            rateLimiter.setLimit(routeClass, scope, rate, burst);
+            LOGGER.info("Rate limit for {} per {} set to {}", args[0], args[1], rateLimiter.limit(routeClass, scope));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Usage: rate_limit <download|upload|api> <ip|token> <requests/s> [<burst>]");
+        }
+    }
+
+    /**
+     * Handles the 'bandwidth' command. Without arguments, lists the caps and the current throughput
+     * of every bucket; otherwise sets the cap of a repository or token, or with {@code *} the
+     * default of the scope, effective from the next chunk sent. A cap of 0 removes it.
+     *
+     * @param args command arguments: [<scope> <name|*> <KB/s>]
+     */
+    private void bandwidth(String[] args) {
+        if (args.length == 0) {
+            StringBuilder out = new StringBuilder("Bandwidth caps:");
+            for (BandwidthLimiter.Scope scope : BandwidthLimiter.Scope.values()) {
+                long cap = bandwidth.cap(scope, null);
+                out.append(String.format("%n➜ %-10s %-16s : %s", BandwidthLimiter.name(scope), "(default)",
+                        cap == 0 ? "unlimited" : cap / 1024 + " KB/s"));
+            }
+            for (BandwidthLimiter.BucketStats bucket : bandwidth.buckets()) {
+                out.append(String.format(Locale.ROOT, "%n➜ %-10s %-16s : %8.1f / %d KB/s, %d MB sent",
+                        BandwidthLimiter.name(bucket.scope()), bucket.name(), bucket.bytesPerSecond() / 1024,
+                        bucket.limitBytesPerSecond() / 1024, bucket.bytesTotal() / 1024 / 1024));
+            }
+            out.append(String.format("%n➜ %-27s : %d", "delayed chunks", bandwidth.delayed()));
+            LOGGER.info(out.toString());
+            return;
+        }
+
+        if (args.length < 3) {
+            LOGGER.warn("Usage: bandwidth <repository|token> <name|*> <KB/s>");
+            return;
+        }
+
+        try {
+            BandwidthLimiter.Scope scope = BandwidthLimiter.Scope.valueOf(args[0].toUpperCase(Locale.ROOT));
+            String name = args[1].equals("*") ? null : args[1];
+            long kilobytes = Long.parseLong(args[2]);
+
+            bandwidth.setCap(scope, name, kilobytes * 1024);
+            LOGGER.info("Bandwidth cap for {} {} set to {}", args[0], args[1],
+                    kilobytes <= 0 ? "unlimited" : kilobytes + " KB/s");
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Usage: bandwidth <repository|token> <name|*> <KB/s>");
+        }
+    }
+
     /**
      * Handles the 'generate_token' command. Generates a new token with the specified
      * name, optional permissions, and optional secret. If no secret is provided,
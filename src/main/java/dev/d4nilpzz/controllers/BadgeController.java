@@ -1,18 +1,41 @@
 package dev.d4nilpzz.controllers;
 
+import dev.d4nilpzz.repos.RepositoryEvents;
+import dev.d4nilpzz.utils.BadgeRenderer;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
-public class BadgeController {
+public final class BadgeController implements RepositoryEvents.Listener {
 
     private static final Path BASE_PATH = Paths.get("./data/repos");
+    private static final String CACHE_CONTROL = "public, max-age=300";
+    private static final int MAX_RENDERED_BADGES = 1024;
+    private static final int MAX_CACHED_DIRECTORIES = 1024;
+    private static final int MAX_FILTERS_PER_DIRECTORY = 16;
+    // Badges name type/channel/owner/repo, the directory holding the version directories.
+    private static final int DIRECTORY_DEPTH = 4;
 
-    public BadgeController(Javalin app) {
+    // Versions directory to filter to latest version ("" if none matches), guarded by itself.
+    private final Map<String, Map<String, String>> latestVersions = lru(MAX_CACHED_DIRECTORIES);
+    private final AtomicLong invalidations = new AtomicLong();
+    private final Map<String, Badge> rendered = lru(MAX_RENDERED_BADGES);
+
+    private record Badge(byte[] svg, String etag) {
+    }
+
+    public BadgeController(Javalin app, RepositoryEvents events) {
         app.get("/api/badge/latest/{type}/{channel}/{owner}/{repo}", this::handleLatest);
+        events.subscribe(this);
     }
 
     private void handleLatest(Context ctx) {
@@ -30,64 +53,115 @@ public class BadgeController {
         if (color == null)  color = "40c14a";
         if (label == null)  label = repo;
         if (prefix == null) prefix = "";
-        if (rounded == null) prefix = "4";
-
-        Path versionsDir = BASE_PATH
-                .resolve(type)
-                .resolve(channel)
-                .resolve(owner)
-                .resolve(repo);
-
-        if (!Files.isDirectory(versionsDir)) {
-            ctx.contentType("image/svg+xml");
-            String svg = svgBuilder(label,"unknown", color, rounded);
-            ctx.result(svg);
+        if (rounded == null) rounded = "4";
+
+        String versionsDir = type + "/" + channel + "/" + owner + "/" + repo;
+
+        String latestVersion;
+        try {
+            latestVersion = latestVersion(versionsDir, filter);
+        } catch (IOException e) {
+            ctx.status(500).result("Internal error");
             return;
         }
 
-        try {
-            String latestVersion = Files.list(versionsDir)
+        String value = latestVersion == null ? "unknown" : prefix + latestVersion;
+        Badge badge = badge(label, value, color, rounded);
+
+        ctx.header("Cache-Control", CACHE_CONTROL);
+        ctx.header("ETag", badge.etag());
+        if (badge.etag().equals(ctx.header("If-None-Match"))) {
+            ctx.status(304);
+            return;
+        }
+
+        ctx.contentType("image/svg+xml");
+        ctx.result(badge.svg());
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        invalidate(path);
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        invalidate(path);
+    }
+
+    private void invalidate(Path changed) {
+        synchronized (latestVersions) {
+            invalidations.incrementAndGet();
+            if (changed.getNameCount() >= DIRECTORY_DEPTH) {
+                // The only directory a change can affect is the one at badge depth above it.
+                latestVersions.remove(changed.subpath(0, DIRECTORY_DEPTH).toString().replace('\\', '/'));
+            } else {
+                // A whole repository or group was deleted; rare enough to scan for.
+                String prefix = changed.toString().replace('\\', '/') + "/";
+                latestVersions.keySet().removeIf(dir -> dir.startsWith(prefix));
+            }
+        }
+    }
+
+    private String latestVersion(String versionsDir, String filter) throws IOException {
+        String key = filter == null ? "" : filter;
+        long seen;
+        synchronized (latestVersions) {
+            Map<String, String> filters = latestVersions.get(versionsDir);
+            String cached = filters == null ? null : filters.get(key);
+            if (cached != null) return cached.isEmpty() ? null : cached;
+            seen = invalidations.get();
+        }
+
+        // Missing directories are not cached, so probing made-up names cannot fill the cache.
+        Path dir = BASE_PATH.resolve(versionsDir);
+        if (!Files.isDirectory(dir)) return null;
+
+        String latest;
+        try (Stream<Path> versions = Files.list(dir)) {
+            latest = versions
                     .filter(Files::isDirectory)
                     .map(p -> p.getFileName().toString())
                     .filter(v -> filter == null || v.startsWith(filter + ".") || v.equals(filter))
                     .max(Comparator.naturalOrder())
-                    .orElse("unknown");
+                    .orElse(null);
+        }
 
-            String svg = svgBuilder(label, prefix + latestVersion, color, rounded);
+        synchronized (latestVersions) {
+            // A listing that started before an upload or delete must not outlive it.
+            if (invalidations.get() == seen) {
+                latestVersions.computeIfAbsent(versionsDir, d -> lru(MAX_FILTERS_PER_DIRECTORY))
+                        .put(key, latest == null ? "" : latest);
+            }
+        }
+        return latest;
+    }
 
-            ctx.contentType("image/svg+xml");
-            ctx.result(svg);
+    private Badge badge(String label, String value, String color, String rounded) {
+        String key = label + '\0' + value + '\0' + color + '\0' + rounded;
 
-        } catch (IOException e) {
-            ctx.status(500).result("Internal error");
+        synchronized (rendered) {
+            Badge badge = rendered.get(key);
+            if (badge != null) return badge;
+        }
+
+        byte[] svg = BadgeRenderer.render(label, value, color, rounded).getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(svg);
+        Badge badge = new Badge(svg, "\"" + Long.toHexString(crc.getValue()) + "-" + svg.length + "\"");
+
+        synchronized (rendered) {
+            rendered.put(key, badge);
         }
+        return badge;
     }
 
-    private String svgBuilder(String label, String version, String color, String rounded) {
-        return """
-        <svg xmlns="http://www.w3.org/2000/svg" width="141" height="20" role="img" aria-label="%s: %s">
-          <title>%s: %s</title>
-          <linearGradient id="s" x2="0" y2="100%%">
-            <stop offset="0" stop-color="#bbb" stop-opacity=".1"/>
-            <stop offset="1" stop-opacity=".1"/>
-          </linearGradient>
-          <clipPath id="r">
-            <rect width="141" height="20" rx="%s" fill="#fff"/>
-          </clipPath>
-          <g clip-path="url(#r)">
-            <rect width="79" height="20" fill="#555"/>
-            <rect x="79" width="62" height="20" fill="#%s"/>
-            <rect width="141" height="20" fill="url(#s)"/>
-          </g>
-          <g fill="#fff" text-anchor="middle"
-             font-family="Verdana,Geneva,DejaVu Sans,sans-serif"
-             text-rendering="geometricPrecision" font-size="110">
-            <text x="395" y="150" fill="#010101" fill-opacity=".3" transform="scale(.1)" textLength="570">%s</text>
-            <text x="395" y="140" transform="scale(.1)" textLength="570">%s</text>
-            <text x="1100" y="150" fill="#010101" fill-opacity=".3" transform="scale(.1)" textLength="400">%s</text>
-            <text x="1100" y="140" transform="scale(.1)" textLength="400">%s</text>
-          </g>
-        </svg>
-        """.formatted(label, version, label, version, rounded, color, label, label, version, version);
+    private static <K, V> Map<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
     }
 }
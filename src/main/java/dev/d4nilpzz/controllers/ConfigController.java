@@ -1,11 +1,11 @@
 package dev.d4nilpzz.controllers;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import dev.d4nilpzz.auth.AccessToken;
 import dev.d4nilpzz.auth.AuthRoute;
 import dev.d4nilpzz.auth.TokenService;
+import dev.d4nilpzz.repos.PageConfigStore;
 import io.javalin.Javalin;
 
 import java.nio.file.DirectoryStream;
@@ -17,14 +17,14 @@ import java.util.Set;
 
 public class ConfigController {
 
-    private static final Path PAGE_CONFIG_PATH = Paths.get("./data/page.json");
     private static final Path REPOS_BASE_PATH = Paths.get("./data/repos");
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     private final TokenService tokenService;
+    private final PageConfigStore pageConfig;
 
-    public ConfigController(TokenService tokenService) {
+    public ConfigController(TokenService tokenService, PageConfigStore pageConfig) {
         this.tokenService = tokenService;
+        this.pageConfig = pageConfig;
     }
 
     public void registerRoutes(Javalin app) {
@@ -32,8 +32,6 @@ public class ConfigController {
 
             AccessToken token = AuthRoute.requireManagerOrWrite(ctx, "/api/config/update", tokenService);
 
-            ObjectNode oldConfig = (ObjectNode) mapper.readTree(PAGE_CONFIG_PATH.toFile());
-            ObjectNode newConfig = oldConfig.deepCopy();
             JsonNode updates = ctx.bodyAsClass(JsonNode.class);
 
             if (!updates.isObject()) {
@@ -41,9 +39,26 @@ public class ConfigController {
                 return;
             }
 
-            updates.fields().forEachRemaining(e ->
-                    newConfig.set(e.getKey(), e.getValue())
-            );
+            String ifMatch = ctx.header("If-Match");
+            PageConfigStore.Snapshot previous;
+            PageConfigStore.Snapshot published;
+
+            do {
+                previous = pageConfig.get();
+                if (ifMatch != null && !ifMatch.equals(etag(previous))) {
+                    ctx.status(412).result("Configuration was modified");
+                    return;
+                }
+
+                ObjectNode candidate = previous.tree();
+                updates.fields().forEachRemaining(e ->
+                        candidate.set(e.getKey(), e.getValue())
+                );
+                published = pageConfig.compareAndSet(previous, candidate);
+            } while (published == null);
+
+            ObjectNode oldConfig = previous.tree();
+            ObjectNode newConfig = published.tree();
 
             Set<String> oldRepos = extractRepoNames(oldConfig);
             Set<String> newRepos = extractRepoNames(newConfig);
@@ -64,20 +79,23 @@ public class ConfigController {
                 }
             }
 
-            mapper.writerWithDefaultPrettyPrinter()
-                    .writeValue(PAGE_CONFIG_PATH.toFile(), newConfig);
-
+            ctx.header("ETag", etag(published));
             ctx.json(newConfig);
         });
     }
 
+    private static String etag(PageConfigStore.Snapshot snapshot) {
+        return "\"" + snapshot.version() + "\"";
+    }
+
     private static Set<String> extractRepoNames(ObjectNode config) {
         Set<String> names = new HashSet<>();
         JsonNode repos = config.get("repositories");
 
         if (repos != null && repos.isArray()) {
             for (JsonNode repo : repos) {
-                if (repo.has("name")) {
+                // Groups only point at other repositories and have no directory of their own.
+                if (repo.has("name") && !"group".equalsIgnoreCase(repo.path("type").asText())) {
                     String name = repo.get("name").asText();
                     if (!name.isEmpty()) {
                         names.add(name);
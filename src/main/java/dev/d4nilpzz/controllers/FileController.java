@@ -3,6 +3,25 @@ package dev.d4nilpzz.controllers;
 import dev.d4nilpzz.auth.AccessToken;
 import dev.d4nilpzz.auth.AuthRoute;
 import dev.d4nilpzz.auth.TokenService;
+import dev.d4nilpzz.metrics.Metrics;
+import dev.d4nilpzz.metrics.Span;
+import dev.d4nilpzz.metrics.Tracing;
+import dev.d4nilpzz.proxy.ProxyRepositories;
+import dev.d4nilpzz.repos.GroupRepositories;
+import dev.d4nilpzz.repos.RepositoryData;
+import dev.d4nilpzz.repos.RepositoryEvents;
+import dev.d4nilpzz.search.ArtifactIndex;
+import dev.d4nilpzz.server.AsyncFileStreamer;
+import dev.d4nilpzz.server.BandwidthLimiter;
+import dev.d4nilpzz.server.UploadAdmission;
+import dev.d4nilpzz.storage.ColdReads;
+import dev.d4nilpzz.storage.ContentNegotiation;
+import dev.d4nilpzz.storage.ContentTypes;
+import dev.d4nilpzz.storage.GzipVariants;
+import dev.d4nilpzz.storage.HotFileCache;
+import dev.d4nilpzz.storage.MappedFileCache;
+import dev.d4nilpzz.storage.MissCache;
+import dev.d4nilpzz.storage.PartFiles;
 import dev.d4nilpzz.utils.MavenUtils;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
@@ -14,18 +33,61 @@ import java.nio.file.*;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class FileController {
 
     private static final Path BASE_PATH = Paths.get("./data/repos");
+    private static final int METADATA_LOCKS = 64;
     private final TokenService tokenService;
-
-    public FileController(TokenService tokenService) {
+    private final RepositoryEvents events;
+    private final GzipVariants gzipVariants;
+    private final HotFileCache hotCache;
+    private final MissCache missCache;
+    private final ArtifactIndex artifactIndex;
+    private final ProxyRepositories proxies;
+    private final GroupRepositories groups;
+    private final ColdReads coldReads;
+    private final MappedFileCache mappedFiles;
+    private final AsyncFileStreamer streamer;
+    private final BandwidthLimiter bandwidth;
+    private final UploadAdmission admission;
+    private final Metrics metrics;
+    // Metadata of an artifact is regenerated by one request at a time, striped by artifact directory.
+    // ReentrantLock rather than a monitor: the lock is held across disk I/O, which would pin a virtual thread.
+    private final ReentrantLock[] metadataLocks = new ReentrantLock[METADATA_LOCKS];
+
+    public FileController(TokenService tokenService, RepositoryEvents events, GzipVariants gzipVariants,
+                          HotFileCache hotCache, MissCache missCache, ArtifactIndex artifactIndex,
+                          ProxyRepositories proxies, GroupRepositories groups, ColdReads coldReads,
+                          MappedFileCache mappedFiles, AsyncFileStreamer streamer, BandwidthLimiter bandwidth,
+                          UploadAdmission admission, Metrics metrics) {
         this.tokenService = tokenService;
+        this.events = events;
+        this.gzipVariants = gzipVariants;
+        this.hotCache = hotCache;
+        this.missCache = missCache;
+        this.artifactIndex = artifactIndex;
+        this.proxies = proxies;
+        this.groups = groups;
+        this.coldReads = coldReads;
+        this.mappedFiles = mappedFiles;
+        this.streamer = streamer;
+        this.bandwidth = bandwidth;
+        this.admission = admission;
+        this.metrics = metrics;
+        for (int i = 0; i < METADATA_LOCKS; i++) metadataLocks[i] = new ReentrantLock();
     }
 
     public void registerRoutes(Javalin app) {
-        app.post("/api/file/upload", this::handleFileUpload);
+        app.post("/api/file/upload", ctx -> {
+            metrics.uploadStarted();
+            try {
+                handleFileUpload(ctx);
+            } finally {
+                metrics.uploadFinished();
+            }
+        });
         app.delete("/api/file/delete", this::handleDeletePath);
 
         app.get("/api/file/view/*", this::handleFileView);
@@ -43,20 +105,184 @@ public class FileController {
 
         final Path BASE_PATH_VIEW = Paths.get("./data/repos").toAbsolutePath().normalize();
         Path target = BASE_PATH_VIEW.resolve(filePath).normalize();
-        if (!target.startsWith(BASE_PATH_VIEW) || !Files.exists(target) || Files.isDirectory(target)) {
+        if (!target.startsWith(BASE_PATH_VIEW)) {
             ctx.status(404).result("File not found");
             return;
         }
 
-        String contentType = Files.probeContentType(target);
-        if (contentType == null) contentType = "application/octet-stream";
-        ctx.contentType(contentType);
+        Path relative = BASE_PATH_VIEW.relativize(target);
+        RepositoryData.Repository group = groups.group(relative.getName(0).toString());
+
+        boolean found = group != null ? serveGroupFile(ctx, group, relative) : serveFile(ctx, relative);
+        if (!found) ctx.status(404).result("File not found");
+    }
+
+    /**
+     * Serves a path of a group repository from the first member that has it.
+     *
+     * @return false if no member has the file
+     */
+    private boolean serveGroupFile(Context ctx, RepositoryData.Repository group, Path relative) throws IOException {
+        if (relative.getNameCount() < 2) return false;
+        String path = relative.subpath(1, relative.getNameCount()).toString().replace('\\', '/');
+
+        if (GroupRepositories.isMetadata(path)) {
+            byte[] merged = groups.metadata(group, path, this::readMetadata, member -> {
+                RepositoryData.Repository proxy = proxies.proxy(member);
+                return proxy == null ? null : ProxyRepositories.metadataTtlSeconds(proxy);
+            });
+            if (merged == null) return false;
+
+            ctx.contentType(ContentTypes.of(relative));
+            ctx.result(merged);
+            return true;
+        }
+
+        String routed = groups.route(group.name, path);
+        if (routed != null) {
+            if (serveFile(ctx, Paths.get(routed).resolve(path))) return true;
+            groups.forget(group.name, path);
+        }
+
+        for (String member : groups.members(group)) {
+            if (member.equals(routed)) continue;
+            if (serveFile(ctx, Paths.get(member).resolve(path))) {
+                groups.remember(group.name, path, member);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] readMetadata(Path relative) {
+        RepositoryData.Repository proxy = proxies.proxy(relative.getName(0).toString());
+        if (proxy != null) proxies.refreshMetadata(proxy, relative);
+
+        HotFileCache.Entry hot = hotCache.get(relative);
+        if (hot != null) return hot.data;
+
+        try {
+            Path file = BASE_PATH.resolve(relative);
+            return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves a file of a local or proxy repository.
+     *
+     * @param relative path relative to the repositories root
+     * @return false if the file does not exist, without having touched the response
+     */
+    private boolean serveFile(Context ctx, Path relative) throws IOException {
+        Path target = BASE_PATH.resolve(relative);
+        boolean compressible = GzipVariants.isCompressible(target.getFileName().toString());
+        boolean acceptsGzip = compressible && ContentNegotiation.acceptsGzip(ctx.header("Accept-Encoding"));
+        RepositoryData.Repository proxy = proxies.proxy(relative.getName(0).toString());
+
+        if (missCache.isMissing(relative)) return false;
+
+        long lookup = missCache.beginLookup();
+        if (proxy == null && artifactIndex.isMissingVersion(relative)) {
+            missCache.recordMiss(relative, lookup);
+            return false;
+        }
+
+        if (proxy != null && ProxyRepositories.isMetadata(relative)) {
+            proxies.refreshMetadata(proxy, relative);
+        }
+
+        HotFileCache.Entry hot = hotCache.get(relative);
+        if (hot == null && (!Files.exists(target) || Files.isDirectory(target))) {
+            if (Files.isDirectory(target) || proxy == null || ProxyRepositories.isMetadata(relative)) {
+                if (!Files.exists(target)) missCache.recordMiss(relative, lookup);
+                return false;
+            }
+
+            try {
+                if (proxies.fetch(proxy, relative, ctx, ContentTypes.of(target))) return true;
+            } catch (ProxyRepositories.FileNotFoundException e) {
+                missCache.recordMiss(relative, lookup);
+                return false;
+            } catch (IOException e) {
+                // Once the download was partly sent the connection has to be aborted instead.
+                if (ctx.res().isCommitted()) throw e;
+                ctx.res().reset();
+                ctx.status(502).result("Upstream error: " + e.getMessage());
+                return true;
+            }
+            hot = hotCache.get(relative);
+        }
+
+        ctx.contentType(ContentTypes.of(target));
+        if (compressible) ctx.header("Vary", "Accept-Encoding");
+
+        if (hot != null) {
+            if (acceptsGzip && hot.gzip != null) {
+                ctx.header("Content-Encoding", "gzip");
+                ctx.result(hot.gzip);
+            } else {
+                ctx.result(hot.data);
+            }
+            return true;
+        }
+
+        long size = Files.size(target);
+        // Throttled downloads are always streamed, the only path that paces its writes.
+        BandwidthLimiter.Throttle throttle = bandwidth.throttle(relative.getName(0).toString(), ctx.attribute("token"), size);
+
+        Path variant = acceptsGzip && throttle == null ? gzipVariants.variant(relative) : null;
+        if (variant != null) {
+            ctx.header("Content-Encoding", "gzip");
+            ctx.result(Files.newInputStream(variant));
+            return true;
+        }
+
+        MappedFileCache.Mapping mapping = mappedFiles.acquire(relative, target, size);
+        if (mapping != null) {
+            streamer.send(ctx, mapping, throttle);
+            return true;
+        }
+
+        if (throttle != null || streamer.accepts(size)) {
+            streamer.send(ctx, target, size, throttle);
+            return true;
+        }
+
+        byte[] shared;
+        try (Span span = Tracing.start("storage.read")) {
+            if (span.isSampled()) span.attribute("file.path", relative.toString()).attribute("file.size", size);
+            shared = coldReads.read(relative, target, size);
+        }
+        if (shared != null) {
+            ctx.result(shared);
+            return true;
+        }
+
         ctx.result(Files.newInputStream(target));
+        return true;
     }
 
     private void handleFileUpload(Context ctx) throws IOException {
         AccessToken token = AuthRoute.requireManagerOrWrite(ctx, "/api/file/upload", tokenService);
 
+        // Admitted before the body is read, which is what takes memory and temporary disk space.
+        UploadAdmission.Permit permit = admission.admit(ctx);
+        try {
+            receiveUpload(ctx);
+        } finally {
+            permit.close();
+        }
+    }
+
+    private void receiveUpload(Context ctx) throws IOException {
+        try (Span span = Tracing.start("upload.multipart")) {
+            span.attribute("http.request_content_length", ctx.req().getContentLengthLong());
+            // Parses the whole body; the lookups below read the parsed parts.
+            ctx.formParamMap();
+        }
+
         String repo = ctx.formParam("repo");
         String path = ctx.formParam("path");
         boolean match = Boolean.parseBoolean(ctx.formParam("mach"));
@@ -77,45 +303,46 @@ public class FileController {
             return;
         }
 
-        Path targetDir = BASE_PATH.resolve(repo).resolve(path);
-        Files.createDirectories(targetDir);
+        // The repository is only known now; its cap covers the write to disk and the metadata update.
+        UploadAdmission.Permit permit = admission.admit(ctx, repo, file.filename(), file.size());
+        try {
+            Path targetDir = BASE_PATH.resolve(repo).resolve(path);
+            Files.createDirectories(targetDir);
+
+            // Written aside and moved into place, so downloads of the previous file (possibly memory-mapped)
+            // keep reading intact content and never see a partial upload.
+            Path targetFile = targetDir.resolve(file.filename());
+            Path partFile = PartFiles.next(targetFile);
+            try (Span span = Tracing.start("storage.write")) {
+                span.attribute("file.path", repo + "/" + path + "/" + file.filename()).attribute("file.size", file.size());
+                Files.copy(file.content(), partFile);
+                Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partFile);
+            }
+            events.fileStored(targetFile);
+            metrics.recordUpload(repo, file.size());
 
-        Path targetFile = targetDir.resolve(file.filename());
-        Files.copy(file.content(), targetFile, StandardCopyOption.REPLACE_EXISTING);
+            Path artifactBase = BASE_PATH
+                    .resolve(repo)
+                    .resolve(groupId.replace('.', '/'))
+                    .resolve(artifactId);
 
-        Path artifactBase = BASE_PATH
-                .resolve(repo)
-                .resolve(groupId.replace('.', '/'))
-                .resolve(artifactId);
+            Files.createDirectories(artifactBase.resolve(version));
+            writeMetadata(artifactBase, groupId, artifactId);
 
-        Files.createDirectories(artifactBase);
+            if (generatePom) {
+                Path pomPath = artifactBase
+                        .resolve(version)
+                        .resolve(artifactId + "-" + version + ".pom");
 
-        Set<String> versions = loadExistingVersions(artifactBase);
-        versions.add(version);
+                Files.createDirectories(pomPath.getParent());
 
-        Path metadataFile = artifactBase.resolve("maven-metadata.xml");
-        Files.writeString(
-                metadataFile,
-                MavenUtils.generateMavenMetadata(groupId, artifactId, versions),
-                StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING
-        );
-
-        if (generatePom) {
-            Path pomPath = artifactBase
-                    .resolve(version)
-                    .resolve(artifactId + "-" + version + ".pom");
-
-            Files.createDirectories(pomPath.getParent());
-
-            Files.writeString(
-                    pomPath,
-                    MavenUtils.generatePom(groupId, artifactId, version),
-                    StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING
-            );
+                writeAtomically(pomPath, MavenUtils.generatePom(groupId, artifactId, version).getBytes(StandardCharsets.UTF_8));
+                events.fileStored(pomPath);
+            }
+        } finally {
+            permit.close();
         }
 
         ctx.status(201);
@@ -150,17 +377,66 @@ public class FileController {
         }
 
         // Borra archivo o carpeta recursivamente
-        Files.walk(target)
-                .sorted(Comparator.reverseOrder())
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (IOException ignored) {}
-                });
+        try (Span span = Tracing.start("storage.delete")) {
+            span.attribute("file.path", repo + "/" + path);
+            Files.walk(target)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.delete(p);
+                        } catch (IOException ignored) {}
+                    });
+        }
+        events.pathDeleted(target);
+
+        // A deleted version directory leaves the metadata of its artifact.
+        Path artifactBase = target.getParent();
+        Path repoBase = BASE_PATH.resolve(repo);
+        if (Files.exists(artifactBase.resolve("maven-metadata.xml")) && artifactBase.getNameCount() > repoBase.getNameCount() + 1) {
+            Path coordinates = repoBase.relativize(artifactBase);
+            String groupId = coordinates.getParent().toString().replace(coordinates.getFileSystem().getSeparator(), ".");
+            writeMetadata(artifactBase, groupId, coordinates.getFileName().toString());
+        }
 
         ctx.status(204);
     }
 
+    /**
+     * Regenerates {@code maven-metadata.xml} from the version directories of an artifact.
+     * Regenerations of the same artifact are serialized, so each one lists the directories after
+     * the previous one has written: concurrent uploads of different versions can't drop each other.
+     */
+    private void writeMetadata(Path artifactBase, String groupId, String artifactId) throws IOException {
+        Path metadataFile = artifactBase.resolve("maven-metadata.xml");
+        try (Span span = Tracing.start("maven.metadata")) {
+            span.attribute("maven.artifact", groupId + ":" + artifactId);
+            ReentrantLock lock = metadataLocks[Math.floorMod(artifactBase.toAbsolutePath().normalize().hashCode(), METADATA_LOCKS)];
+            lock.lock();
+            try {
+                Set<String> versions = loadExistingVersions(artifactBase);
+                span.attribute("maven.versions", versions.size());
+                writeAtomically(metadataFile,
+                        MavenUtils.generateMavenMetadata(groupId, artifactId, versions).getBytes(StandardCharsets.UTF_8));
+            } finally {
+                lock.unlock();
+            }
+        }
+        events.fileStored(metadataFile);
+    }
+
+    /**
+     * Writes a file aside and moves it into place, so readers see either the old or the new content.
+     */
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path partFile = PartFiles.next(target);
+        try {
+            Files.write(partFile, content);
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
     private Set<String> loadExistingVersions(Path artifactBase) throws IOException {
         Set<String> versions = new HashSet<>();
         if (!Files.exists(artifactBase)) return versions;
@@ -0,0 +1,84 @@
+package dev.d4nilpzz.controllers;
+
+import dev.d4nilpzz.metrics.LiveStats;
+import dev.d4nilpzz.metrics.Metrics;
+import dev.d4nilpzz.server.ClientAddress;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serves {@link Metrics} to Prometheus, and the per-second {@link LiveStats} as JSON. Access is independent of repository tokens: the scraper
+ * either connects from an allowed address or presents the dedicated metrics token.
+ * <p>
+ * No address is allowed by default. Behind a reverse proxy every client connects from the proxy's
+ * address, often loopback, so an allowed address would open the metrics, and the repository names
+ * in them, to everyone. Requests are therefore judged by the client address {@link ClientAddress}
+ * resolves through trusted proxies, and never by a proxy's own address.
+ */
+public class MetricsController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+    private final LiveStats liveStats;
+    private final byte[] token;
+    private final Set<InetAddress> allowedAddresses = new HashSet<>();
+    private final ClientAddress clients;
+
+    /**
+     * @param metrics          metrics to serve
+     * @param liveStats        per-second rates served as JSON
+     * @param token            bearer token accepted from any address, empty to accept none
+     * @param allowedAddresses IP addresses of clients allowed without a token
+     * @param clients          resolves client addresses behind trusted proxies
+     * @throws UnknownHostException if an allowed address cannot be resolved
+     */
+    public MetricsController(Metrics metrics, LiveStats liveStats, String token, Set<String> allowedAddresses,
+                             ClientAddress clients) throws UnknownHostException {
+        this.metrics = metrics;
+        this.liveStats = liveStats;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        for (String address : allowedAddresses) {
+            this.allowedAddresses.add(InetAddress.getByName(address));
+        }
+        this.clients = clients;
+    }
+
+    public void registerRoutes(Javalin app) {
+        app.get("/metrics", ctx -> {
+            if (!isAllowed(ctx)) {
+                ctx.status(403).result("Forbidden");
+                return;
+            }
+
+            ctx.contentType(CONTENT_TYPE);
+            ctx.result(metrics.render());
+        });
+
+        app.get("/metrics/live", ctx -> {
+            if (!isAllowed(ctx)) {
+                ctx.status(403).result("Forbidden");
+                return;
+            }
+
+            ctx.json(liveStats.latest());
+        });
+    }
+
+    private boolean isAllowed(Context ctx) {
+        InetAddress client = clients.resolve(ctx);
+        if (client != null && allowedAddresses.contains(client)) return true;
+        if (token.length == 0) return false;
+
+        String authHeader = ctx.header("Authorization");
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) return false;
+        byte[] presented = authHeader.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(token, presented);
+    }
+}
@@ -2,45 +2,37 @@ package dev.d4nilpzz.controllers;
 
 import dev.d4nilpzz.auth.AuthRoute;
 import dev.d4nilpzz.auth.TokenService;
+import dev.d4nilpzz.metrics.Span;
+import dev.d4nilpzz.metrics.Tracing;
+import dev.d4nilpzz.repos.PageConfigStore;
 import dev.d4nilpzz.repos.RepositoryData;
 import io.javalin.Javalin;
 import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-
 public class PageController {
     private final TokenService tokenService;
+    private final PageConfigStore pageConfig;
 
-    public PageController(TokenService tokenService) {
+    public PageController(TokenService tokenService, PageConfigStore pageConfig) {
         this.tokenService = tokenService;
+        this.pageConfig = pageConfig;
     }
 
     public void registerRoutes(Javalin app) {
-        app.get("/", ctx -> {
-            try (InputStream is = getClass().getResourceAsStream("/static/index.html")) {
-                ctx.contentType("text/html");
-                assert is != null;
-                ctx.result(new String(is.readAllBytes(), StandardCharsets.UTF_8));
-            }
-        });
-
         app.get("/api/page/content", this::handlePageContent);
     }
 
     private void handlePageContent(Context ctx) {
         try {
-            RepositoryData data = RepositoryData.loadPageConfig();
-            data.repositories = loadRepositoriesWithPrivacy();
+            PageConfigStore.Snapshot snapshot = pageConfig.get();
+            RepositoryData data = snapshot.page();
+            data.repositories = loadRepositoriesWithPrivacy(snapshot);
 
             boolean logged = true;
             try {
@@ -63,7 +55,7 @@ public class PageController {
     }
 
 
-    private List<RepositoryData.Repository> loadRepositoriesWithPrivacy() throws Exception {
+    private List<RepositoryData.Repository> loadRepositoriesWithPrivacy(PageConfigStore.Snapshot pageConfig) throws Exception {
         List<RepositoryData.Repository> repos = new ArrayList<>();
         File reposDir = new File("./data/repos");
 
@@ -72,64 +64,23 @@ public class PageController {
         File[] files = reposDir.listFiles(File::isDirectory);
         if (files == null) return repos;
 
-        RepositoryData pageConfig = RepositoryData.loadPageConfig();
-
         for (File repoDir : files) {
             RepositoryData.Repository repo = new RepositoryData.Repository();
             repo.name = repoDir.getName();
             repo.path = "/" + repoDir.getName();
-            repo.tree = loadRepoTree(repoDir.toPath(), repoDir.toPath(), "/" + repoDir.getName());
+            try (Span span = Tracing.start("repository.tree_scan")) {
+                span.attribute("repository", repo.name);
+                repo.tree = RepositoryData.loadRepoTree(repoDir.toPath(), "/" + repoDir.getName());
+            }
 
-            RepositoryData.Repository savedRepo = pageConfig.repositories.stream()
-                    .filter(r -> r.name.equals(repo.name))
-                    .findFirst().orElse(null);
+            RepositoryData.Repository savedRepo = pageConfig.repository(repo.name);
 
             repo.isPrivate = savedRepo != null ? savedRepo.isPrivate : false;
+            repo.type = savedRepo != null ? savedRepo.type : null;
 
             repos.add(repo);
         }
 
         return repos;
     }
-
-
-    private List<RepositoryData.TreeNode> loadRepoTree(Path rootPath, Path currentPath, String basePath) throws Exception {
-        List<RepositoryData.TreeNode> nodes = new ArrayList<>();
-        if (!Files.exists(currentPath) || !Files.isDirectory(currentPath)) return nodes;
-
-        Files.list(currentPath)
-                .sorted(Comparator.comparing(p -> p.getFileName().toString()))
-                .forEach(path -> {
-                    RepositoryData.TreeNode node = new RepositoryData.TreeNode();
-                    node.name = path.getFileName().toString();
-                    node.path = basePath + "/" + node.name;
-
-                    if (Files.isDirectory(path)) {
-                        node.type = "directory";
-                        try {
-                            node.children = loadRepoTree(rootPath, path, node.path);
-                        } catch (Exception e) {
-                            node.children = new ArrayList<>();
-                        }
-                        node.size = null;
-                        node.version = null;
-                        node.artifactId = null;
-                        node.groupId = null;
-                    } else {
-                        node.type = "file";
-                        node.size = path.toFile().length();
-                        node.children = null;
-
-                        if (node.name.endsWith(".jar") || node.name.endsWith(".pom")) {
-                            Path versionDir = path.getParent();
-                            node.version = versionDir.getFileName().toString();
-                        }
-                    }
-
-                    nodes.add(node);
-                });
-
-        return nodes;
-    }
-
 }
@@ -0,0 +1,170 @@
+package dev.d4nilpzz.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.d4nilpzz.auth.AuthRoute;
+import dev.d4nilpzz.auth.TokenService;
+import dev.d4nilpzz.repos.PageConfigStore;
+import dev.d4nilpzz.search.ArtifactIndex;
+import dev.d4nilpzz.search.MavenVersion;
+import dev.d4nilpzz.search.VersionRange;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+public class SearchController {
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 200;
+    private static final int MAX_COORDINATES = 500;
+
+    private final TokenService tokenService;
+    private final PageConfigStore pageConfig;
+    private final ArtifactIndex index;
+
+    public SearchController(TokenService tokenService, PageConfigStore pageConfig, ArtifactIndex index) {
+        this.tokenService = tokenService;
+        this.pageConfig = pageConfig;
+        this.index = index;
+    }
+
+    public void registerRoutes(Javalin app) {
+        app.get("/api/search", this::handleSearch);
+        app.get("/api/search/versions", ctx -> handleVersions(ctx, ctx.queryParams("c"), ctx.queryParam("repo")));
+        app.post("/api/search/versions", ctx -> {
+            JsonNode body = ctx.bodyAsClass(JsonNode.class);
+            if (!body.isObject() || !body.path("coordinates").isArray()) {
+                ctx.status(400).result("Invalid JSON body");
+                return;
+            }
+
+            List<String> coordinates = new ArrayList<>();
+            body.get("coordinates").forEach(c -> coordinates.add(c.asText()));
+            handleVersions(ctx, coordinates, body.path("repo").asText(null));
+        });
+    }
+
+    private void handleSearch(Context ctx) {
+        String query = ctx.queryParam("q");
+        String repo = ctx.queryParam("repo");
+
+        if (query == null || query.isBlank()) {
+            ctx.status(400).result("Missing query");
+            return;
+        }
+
+        int limit = DEFAULT_LIMIT;
+        String limitParam = ctx.queryParam("limit");
+        if (limitParam != null) {
+            try {
+                limit = Math.min(Math.max(Integer.parseInt(limitParam), 1), MAX_LIMIT);
+            } catch (NumberFormatException e) {
+                ctx.status(400).result("Invalid limit");
+                return;
+            }
+        }
+
+        Set<String> hidden = privateRepositories(ctx);
+
+        long start = System.nanoTime();
+        List<ArtifactIndex.Artifact> results = index.search(query,
+                r -> !hidden.contains(r) && (repo == null || repo.isEmpty() || repo.equals(r)),
+                limit);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("query", query);
+        response.put("took_us", (System.nanoTime() - start) / 1_000);
+        response.put("results", results);
+        ctx.json(response);
+    }
+
+    private void handleVersions(Context ctx, List<String> coordinates, String repo) {
+        if (coordinates.isEmpty()) {
+            ctx.status(400).result("Missing coordinates");
+            return;
+        }
+        if (coordinates.size() > MAX_COORDINATES) {
+            ctx.status(400).result("Too many coordinates, at most " + MAX_COORDINATES);
+            return;
+        }
+
+        Set<String> hidden = privateRepositories(ctx);
+        Predicate<String> repos = r -> !hidden.contains(r) && (repo == null || repo.isEmpty() || repo.equals(r));
+
+        long start = System.nanoTime();
+        List<Map<String, Object>> results = new ArrayList<>(coordinates.size());
+        for (String coordinate : coordinates) {
+            results.add(resolveVersions(coordinate, repos));
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took_us", (System.nanoTime() - start) / 1_000);
+        response.put("results", results);
+        ctx.json(response);
+    }
+
+    /**
+     * Resolves {@code groupId:artifactId} or {@code groupId:artifactId:range} against the index.
+     */
+    private Map<String, Object> resolveVersions(String coordinate, Predicate<String> repos) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("coordinate", coordinate);
+
+        String[] parts = coordinate.split(":", 3);
+        if (parts.length < 2 || parts[0].isBlank() || parts[1].isBlank()) {
+            result.put("error", "Expected groupId:artifactId[:range]");
+            return result;
+        }
+
+        VersionRange range = null;
+        if (parts.length == 3 && !parts[2].isBlank()) {
+            try {
+                range = VersionRange.parse(parts[2]);
+            } catch (IllegalArgumentException e) {
+                result.put("error", e.getMessage());
+                return result;
+            }
+        }
+
+        Map<String, List<String>> found = index.versionsOf(parts[0].trim(), parts[1].trim(), repos);
+        VersionRange filter = range;
+        List<MavenVersion> matching = found.values().stream()
+                .flatMap(List::stream)
+                .distinct()
+                .map(MavenVersion::parse)
+                .filter(v -> filter == null || filter.contains(v))
+                .sorted(Comparator.<MavenVersion>naturalOrder().thenComparing(v -> v.value))
+                .toList();
+
+        MavenVersion latest = matching.isEmpty() ? null : matching.get(matching.size() - 1);
+        MavenVersion release = null;
+        for (int i = matching.size() - 1; i >= 0 && release == null; i--) {
+            if (!matching.get(i).isSnapshot()) release = matching.get(i);
+        }
+
+        result.put("latest", latest == null ? null : latest.value);
+        result.put("release", release == null ? null : release.value);
+        result.put("versions", matching.stream().map(v -> v.value).toList());
+        result.put("repositories", found.keySet());
+        return result;
+    }
+
+    private Set<String> privateRepositories(Context ctx) {
+        try {
+            AuthRoute.requireManagerOrWrite(ctx, "/api/search", tokenService);
+            return Set.of();
+        } catch (Exception ignored) {
+        }
+
+        return pageConfig.get().page().repositories.stream()
+                .filter(r -> r.isPrivate)
+                .map(r -> r.name)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,52 @@
+package dev.d4nilpzz.controllers;
+
+import dev.d4nilpzz.storage.ContentNegotiation;
+import dev.d4nilpzz.storage.StaticAssets;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+public class StaticController {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+
+    private final StaticAssets assets;
+
+    public StaticController(StaticAssets assets) {
+        this.assets = assets;
+    }
+
+    public void registerRoutes(Javalin app) {
+        for (String path : assets.all().keySet()) {
+            app.get(path, this::handleAsset);
+            app.head(path, this::handleAsset);
+        }
+    }
+
+    private void handleAsset(Context ctx) {
+        StaticAssets.Asset asset = assets.get(ctx.path());
+        if (asset == null) {
+            ctx.status(404).result("Not found");
+            return;
+        }
+
+        boolean gzip = asset.gzip != null && ContentNegotiation.acceptsGzip(ctx.header("Accept-Encoding"));
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+
+        ctx.header("Cache-Control", asset.immutable ? IMMUTABLE : REVALIDATE);
+        ctx.header("ETag", etag);
+        if (asset.gzip != null) ctx.header("Vary", "Accept-Encoding");
+
+        if (ContentNegotiation.etagMatches(ctx.header("If-None-Match"), etag)) {
+            ctx.status(304);
+            return;
+        }
+
+        byte[] body = gzip ? asset.gzip : asset.bytes;
+        ctx.contentType(asset.contentType);
+        if (gzip) ctx.header("Content-Encoding", "gzip");
+        ctx.header("Content-Length", String.valueOf(body.length));
+
+        if (ctx.method() != HandlerType.HEAD) ctx.result(body);
+    }
+}
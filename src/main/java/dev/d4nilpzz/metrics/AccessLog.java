@@ -0,0 +1,305 @@
+package dev.d4nilpzz.metrics;
+
+import dev.d4nilpzz.auth.AccessToken;
+import dev.d4nilpzz.server.ClientAddress;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AccessLog writes one JSON line per finished request: time, method, path, status, bytes sent,
+ * duration, token name and client address.
+ * <p>
+ * Request threads only copy references and numbers into a preallocated ring buffer, claiming a
+ * slot with a single compare-and-set; nothing is formatted or written on their side.
+ * A background thread drains the buffer into the log file and rotates it by size. When the
+ * buffer is full the record is dropped and counted, so a slow disk never stalls requests.
+ */
+public class AccessLog implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+    private static final long IDLE_PARK_NANOS = 20_000_000;
+
+    private final Path file;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    // Ring buffer: a slot is free for the producer of sequence s when sequences[s & mask] == s,
+    // and holds a record for the consumer once it becomes s + 1.
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final long[] times;
+    private final long[] durationsMicros;
+    private final long[] bytes;
+    private final int[] statuses;
+    private final String[] methods;
+    private final String[] paths;
+    private final String[] tokens;
+    private final String[] addresses;
+    private final ClientAddress clients;
+    private long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final StringBuilder line = new StringBuilder(512);
+    private char[] chars = new char[512];
+    private Writer out;
+    private long fileBytes;
+    private boolean failing;
+
+    /**
+     * @param file     log file; rotated copies get a {@code .1}, {@code .2}... suffix
+     * @param maxBytes size after which the file is rotated
+     * @param maxFiles rotated copies kept
+     * @param capacity records buffered before new ones are dropped, rounded up to a power of two
+     * @param clients  resolves client addresses behind trusted proxies
+     */
+    public AccessLog(Path file, long maxBytes, int maxFiles, int capacity, ClientAddress clients) {
+        this.file = file;
+        this.clients = clients;
+        this.maxBytes = Math.max(1024 * 1024, maxBytes);
+        this.maxFiles = Math.max(0, maxFiles);
+
+        int size = Integer.highestOneBit(Math.max(64, Math.min(1 << 24, capacity) - 1) << 1);
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.times = new long[size];
+        this.durationsMicros = new long[size];
+        this.bytes = new long[size];
+        this.statuses = new int[size];
+        this.methods = new String[size];
+        this.paths = new String[size];
+        this.tokens = new String[size];
+        this.addresses = new String[size];
+
+        this.writerThread = new Thread(this::drainLoop, "access-log");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Queues a finished request. Meant to be called from Javalin's request logger; never blocks.
+     */
+    public void record(Context ctx, float executionTimeMs) {
+        long sequence;
+        int slot;
+        while (true) {
+            sequence = tail.get();
+            slot = (int) sequence & mask;
+            long available = sequences.get(slot);
+            if (available < sequence) {
+                dropped.increment();
+                return;
+            }
+            if (available == sequence && tail.compareAndSet(sequence, sequence + 1)) break;
+        }
+
+        AccessToken token = ctx.attribute("token");
+        times[slot] = System.currentTimeMillis();
+        durationsMicros[slot] = (long) (executionTimeMs * 1000);
+        bytes[slot] = Metrics.bytesWritten(ctx);
+        statuses[slot] = ctx.statusCode();
+        methods[slot] = ctx.method().name();
+        paths[slot] = ctx.path();
+        tokens[slot] = token == null ? null : token.name;
+        addresses[slot] = clients.of(ctx);
+        sequences.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * @return records dropped because the buffer was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return records written to the log file
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * Writes out the buffered records and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            drain();
+            flush();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) return count;
+
+            format(slot);
+            paths[slot] = null;
+            tokens[slot] = null;
+            addresses[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            count++;
+
+            write();
+        }
+    }
+
+    private void format(int slot) {
+        line.setLength(0);
+        line.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(times[slot]), line);
+        line.append("\",\"method\":\"").append(methods[slot]);
+        line.append("\",\"path\":");
+        string(paths[slot]);
+        line.append(",\"status\":").append(statuses[slot]);
+        line.append(",\"bytes\":").append(bytes[slot]);
+        long micros = durationsMicros[slot];
+        line.append(",\"duration_ms\":").append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) line.append('0');
+        if (fraction < 10) line.append('0');
+        line.append(fraction);
+        line.append(",\"token\":");
+        string(tokens[slot]);
+        line.append(",\"ip\":");
+        string(addresses[slot]);
+        line.append("}\n");
+    }
+
+    private void string(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append("\\u00");
+                line.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private void write() {
+        try {
+            if (out == null) open();
+            int length = line.length();
+            if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+            line.getChars(0, length, chars, 0);
+            out.write(chars, 0, length);
+            // Close enough for rotation: lines are nearly always ASCII.
+            fileBytes += length;
+            written.incrementAndGet();
+            failing = false;
+            if (fileBytes >= maxBytes) rotate();
+        } catch (IOException e) {
+            dropped.increment();
+            failed(e);
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        fileBytes = Files.exists(file) ? Files.size(file) : 0;
+        out = new OutputStreamWriter(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024),
+                StandardCharsets.UTF_8);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        if (maxFiles == 0) {
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(rotated(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void failed(IOException e) {
+        // Logged once per outage rather than once per record.
+        if (!failing) LOGGER.warn("Could not write the access log {}: {}", file, e.getMessage());
+        failing = true;
+        closeFile();
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,266 @@
+package dev.d4nilpzz.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * LiveStats turns the cumulative {@link Metrics} into per-second rates: once a second it takes the
+ * difference with the previous sample, so request rates, bandwidth, p99 latency, GC pauses and
+ * cache hit ratios describe the last second rather than the whole uptime. The latest
+ * {@link Snapshot} feeds the console's {@code top} view and the {@code /metrics/live} endpoint.
+ */
+public class LiveStats {
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int ROUTES_SHOWN = 15;
+
+    private final Metrics metrics;
+    private final IntSupplier virtualThreads;
+    private final List<Cache> caches = new ArrayList<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("live-stats").daemon().factory());
+
+    // Previous sample, guarded by this.
+    private final Map<Metrics.RouteStats, long[]> previousRoutes = new IdentityHashMap<>();
+    private long previousNanos = System.nanoTime();
+    private long previousServed;
+    private long previousUploaded;
+    private long previousQueries;
+    private long previousGcCount;
+    private long previousGcMillis;
+
+    private volatile Snapshot latest;
+
+    public record Snapshot(
+            long timestamp,
+            double intervalSeconds,
+            double requestsPerSecond,
+            int requestsInFlight,
+            int uploadsInFlight,
+            double p99Ms,
+            double downloadBytesPerSecond,
+            double uploadBytesPerSecond,
+            int threads,
+            int daemonThreads,
+            int virtualThreads,
+            long gcCollections,
+            long gcPauseMs,
+            long heapUsedBytes,
+            long heapMaxBytes,
+            double sqliteQueriesPerSecond,
+            List<CacheStats> caches,
+            List<RouteStats> routes
+    ) {
+    }
+
+    /**
+     * @param hitRatio hits per lookup over the interval, or since start when there were none;
+     *                 null if the cache does not count its misses
+     */
+    public record CacheStats(String name, double hitsPerSecond, Double hitRatio) {
+    }
+
+    public record RouteStats(String method, String route, double requestsPerSecond, double p99Ms) {
+    }
+
+    private static final class Cache {
+        final String name;
+        final LongSupplier hits;
+        final LongSupplier misses;
+        long previousHits;
+        long previousMisses;
+
+        Cache(String name, LongSupplier hits, LongSupplier misses) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+
+    /**
+     * @param metrics        cumulative metrics to sample
+     * @param virtualThreads virtual threads currently running requests
+     */
+    public LiveStats(Metrics metrics, IntSupplier virtualThreads) {
+        this.metrics = metrics;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Registers a cache whose hit ratio is shown.
+     *
+     * @param misses lookups that missed, null if the cache only counts hits
+     */
+    public synchronized void cache(String name, LongSupplier hits, LongSupplier misses) {
+        caches.add(new Cache(name, hits, misses));
+    }
+
+    /**
+     * Starts sampling once a second.
+     */
+    public void start() {
+        synchronized (this) {
+            sample();
+        }
+        ticker.scheduleAtFixedRate(() -> {
+            synchronized (this) {
+                sample();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return rates over the last second
+     */
+    public Snapshot latest() {
+        Snapshot snapshot = latest;
+        if (snapshot != null) return snapshot;
+        synchronized (this) {
+            if (latest == null) sample();
+            return latest;
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - previousNanos) / 1e9);
+        previousNanos = now;
+
+        long[] merged = new long[LatencyHistogram.BUCKETS];
+        List<RouteStats> routes = new ArrayList<>();
+        long[] requests = new long[1];
+        metrics.forEachRoute((method, route, stats) -> {
+            long[] counts = stats.latency.snapshot();
+            long[] previous = previousRoutes.put(stats, counts);
+            long[] delta = new long[counts.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - (previous == null ? 0 : previous[i]);
+                merged[i] += delta[i];
+                total += delta[i];
+            }
+
+            requests[0] += total;
+            if (total > 0) {
+                routes.add(new RouteStats(method, route, total / seconds,
+                        LatencyHistogram.quantileNanos(delta, 0.99) / 1e6));
+            }
+        });
+        routes.sort(Comparator.comparingDouble(RouteStats::requestsPerSecond).reversed());
+
+        long served = metrics.servedBytes();
+        long uploaded = metrics.uploadedBytes();
+        long queries = metrics.queries();
+        double downloadRate = (served - previousServed) / seconds;
+        double uploadRate = (uploaded - previousUploaded) / seconds;
+        double queryRate = (queries - previousQueries) / seconds;
+        previousServed = served;
+        previousUploaded = uploaded;
+        previousQueries = queries;
+
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        long collections = gcCount - previousGcCount;
+        long pauses = gcMillis - previousGcMillis;
+        previousGcCount = gcCount;
+        previousGcMillis = gcMillis;
+
+        List<CacheStats> cacheStats = new ArrayList<>();
+        for (Cache cache : caches) {
+            long hits = cache.hits.getAsLong();
+            long hitDelta = hits - cache.previousHits;
+            cache.previousHits = hits;
+            Double ratio = null;
+            if (cache.misses != null) {
+                long misses = cache.misses.getAsLong();
+                long missDelta = misses - cache.previousMisses;
+                cache.previousMisses = misses;
+                if (hitDelta + missDelta > 0) ratio = (double) hitDelta / (hitDelta + missDelta);
+                else if (hits + misses > 0) ratio = (double) hits / (hits + misses);
+                else ratio = 0.0;
+            }
+            cacheStats.add(new CacheStats(cache.name, hitDelta / seconds, ratio));
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        latest = new Snapshot(
+                System.currentTimeMillis(),
+                seconds,
+                requests[0] / seconds,
+                metrics.requestsInFlight(),
+                metrics.uploadsInFlight(),
+                LatencyHistogram.quantileNanos(merged, 0.99) / 1e6,
+                downloadRate,
+                uploadRate,
+                threads.getThreadCount(),
+                threads.getDaemonThreadCount(),
+                virtualThreads.getAsInt(),
+                collections,
+                pauses,
+                heap.getUsed(),
+                heap.getMax(),
+                queryRate,
+                List.copyOf(cacheStats),
+                List.copyOf(routes)
+        );
+    }
+
+    /**
+     * @return the snapshot as a screen of text, in the style of {@code top}
+     */
+    public static String render(Snapshot s) {
+        StringBuilder out = new StringBuilder(2048);
+        LocalTime time = Instant.ofEpochMilli(s.timestamp()).atZone(ZoneId.systemDefault()).toLocalTime();
+        out.append(String.format(Locale.ROOT, "repossify  %s   requests %8.1f/s   in flight %4d   uploads %3d   p99 %8.2f ms%n",
+                CLOCK.format(time), s.requestsPerSecond(), s.requestsInFlight(), s.uploadsInFlight(), s.p99Ms()));
+        out.append(String.format(Locale.ROOT, "bandwidth  down %10s/s   up %10s/s   sqlite %7.1f queries/s%n",
+                bytes(s.downloadBytesPerSecond()), bytes(s.uploadBytesPerSecond()), s.sqliteQueriesPerSecond()));
+        out.append(String.format(Locale.ROOT, "jvm        threads %4d (%d daemon)   virtual %5d   heap %s / %s   gc %d (%d ms)%n",
+                s.threads(), s.daemonThreads(), s.virtualThreads(), bytes(s.heapUsedBytes()),
+                s.heapMaxBytes() < 0 ? "-" : bytes(s.heapMaxBytes()), s.gcCollections(), s.gcPauseMs()));
+
+        out.append("caches    ");
+        for (CacheStats cache : s.caches()) {
+            out.append(String.format(Locale.ROOT, "  %s %.1f hits/s", cache.name(), cache.hitsPerSecond()));
+            if (cache.hitRatio() != null) out.append(String.format(Locale.ROOT, " (%.1f%%)", cache.hitRatio() * 100));
+        }
+        out.append("\n\n");
+
+        out.append(String.format(Locale.ROOT, "%-7s %-48s %10s %10s%n", "METHOD", "ROUTE", "REQ/S", "P99 MS"));
+        int shown = 0;
+        for (RouteStats route : s.routes()) {
+            if (shown++ == ROUTES_SHOWN) break;
+            out.append(String.format(Locale.ROOT, "%-7s %-48s %10.1f %10.2f%n",
+                    route.method(), route.route(), route.requestsPerSecond(), route.p99Ms()));
+        }
+        return out.toString();
+    }
+
+    private static String bytes(double bytes) {
+        if (bytes < 1024) return String.format(Locale.ROOT, "%.0f B", bytes);
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024);
+        if (bytes < 1024L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f MB", bytes / 1024 / 1024);
+        return String.format(Locale.ROOT, "%.2f GB", bytes / 1024 / 1024 / 1024);
+    }
+}
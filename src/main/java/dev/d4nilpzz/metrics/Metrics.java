@@ -0,0 +1,331 @@
+package dev.d4nilpzz.metrics;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Metrics collects the server's runtime statistics and renders them in the Prometheus text
+ * exposition format. Request handling records into preallocated histograms and counters; values
+ * owned by other components, such as cache hit counts, are registered as suppliers and only read
+ * when the metrics are scraped.
+ */
+public class Metrics {
+    private static final String UNMATCHED = "unmatched";
+    private static final String FILE_VIEW = "/api/file/view/*";
+    private static final String FILE_VIEW_PREFIX = "/api/file/view/";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, RouteStats>> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> servedBytes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> uploadedBytes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> queries = new ConcurrentHashMap<>();
+    private final LatencyHistogram bcrypt = new LatencyHistogram();
+    private final LatencyHistogram authentications = new LatencyHistogram();
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private final List<Sampled> sampled = new ArrayList<>();
+    private final List<Labeled> labeled = new ArrayList<>();
+
+    private record Sampled(String name, String type, String help, DoubleSupplier value) {
+    }
+
+    private record Labeled(String name, String type, String help, String label, Supplier<Map<String, ? extends Number>> values) {
+    }
+
+    /**
+     * Request count per status code and latency of one route.
+     */
+    static final class RouteStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLongArray statuses = new AtomicLongArray(600);
+    }
+
+    /**
+     * Records a finished request. Meant to be installed as Javalin's request logger, which runs once
+     * the response has been sent, asynchronous downloads included.
+     *
+     * @param ctx             the request
+     * @param executionTimeMs time from the start of the request to the end of the response
+     */
+    public void recordRequest(Context ctx, float executionTimeMs) {
+        requestsInFlight.decrementAndGet();
+        String route = route(ctx);
+
+        RouteStats stats = routes
+                .computeIfAbsent(ctx.method().name(), m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(route, r -> new RouteStats());
+        int status = ctx.statusCode();
+        stats.statuses.incrementAndGet(status >= 100 && status < 600 ? status : 0);
+        stats.latency.record((long) (executionTimeMs * 1_000_000L));
+
+        if (route.equals(FILE_VIEW) && status < 400) {
+            String path = ctx.path();
+            int slash = path.indexOf('/', FILE_VIEW_PREFIX.length());
+            if (slash > FILE_VIEW_PREFIX.length()) {
+                String repo = path.substring(FILE_VIEW_PREFIX.length(), slash);
+                servedBytes.computeIfAbsent(repo, r -> new LongAdder()).add(bytesWritten(ctx));
+            }
+        }
+    }
+
+    /**
+     * Counts a request as in flight until {@link #recordRequest} is called for it.
+     */
+    public void requestStarted() {
+        requestsInFlight.incrementAndGet();
+    }
+
+    /**
+     * @return the route pattern that handled a request, e.g. {@code /api/file/view/*}
+     */
+    public static String route(Context ctx) {
+        // Requests that never reached an endpoint are grouped, so arbitrary paths do not create new series.
+        String route = ctx.handlerType() == HandlerType.BEFORE ? UNMATCHED : ctx.endpointHandlerPath();
+        return route.isEmpty() || route.charAt(0) != '/' ? UNMATCHED : route;
+    }
+
+    /**
+     * @param repo  repository the upload was stored in
+     * @param bytes size of the uploaded file
+     */
+    public void recordUpload(String repo, long bytes) {
+        uploadedBytes.computeIfAbsent(repo, r -> new LongAdder()).add(bytes);
+    }
+
+    public void uploadStarted() {
+        uploadsInFlight.incrementAndGet();
+    }
+
+    public void uploadFinished() {
+        uploadsInFlight.decrementAndGet();
+    }
+
+    /**
+     * @param nanos duration of a single BCrypt check
+     */
+    public void recordBcrypt(long nanos) {
+        bcrypt.record(nanos);
+    }
+
+    /**
+     * @param nanos duration of a whole token lookup, database and BCrypt included
+     */
+    public void recordAuthentication(long nanos) {
+        authentications.record(nanos);
+    }
+
+    /**
+     * @param query short fixed name of the query, e.g. {@code select_tokens}
+     * @param nanos time spent running it and reading its results
+     */
+    public void recordQuery(String query, long nanos) {
+        queries.computeIfAbsent(query, q -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Registers a monotonically increasing value owned by another component.
+     */
+    public synchronized void counter(String name, String help, DoubleSupplier value) {
+        sampled.add(new Sampled(name, "counter", help, value));
+    }
+
+    /**
+     * Registers a current value owned by another component.
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier value) {
+        sampled.add(new Sampled(name, "gauge", help, value));
+    }
+
+    /**
+     * Registers current values owned by another component, one series per value of the label.
+     */
+    public synchronized void gauges(String name, String help, String label, Supplier<Map<String, ? extends Number>> values) {
+        labeled.add(new Labeled(name, "gauge", help, label, values));
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format, version 0.0.4
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        header(out, "repossify_http_requests_total", "counter", "HTTP requests by method, route and status.");
+        forEachRoute((method, route, stats) -> {
+            for (int status = 0; status < 600; status++) {
+                long count = stats.statuses.get(status);
+                if (count == 0) continue;
+                out.append("repossify_http_requests_total{method=\"").append(method)
+                        .append("\",route=\"").append(escape(route))
+                        .append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        });
+
+        header(out, "repossify_http_request_duration_seconds", "histogram", "HTTP request latency by method and route.");
+        forEachRoute((method, route, stats) ->
+                histogram(out, "repossify_http_request_duration_seconds",
+                        "method=\"" + method + "\",route=\"" + escape(route) + "\"", stats.latency));
+
+        header(out, "repossify_served_bytes_total", "counter", "Bytes of repository files served, by repository.");
+        perRepository(out, "repossify_served_bytes_total", servedBytes);
+        header(out, "repossify_uploaded_bytes_total", "counter", "Bytes of files uploaded, by repository.");
+        perRepository(out, "repossify_uploaded_bytes_total", uploadedBytes);
+
+        header(out, "repossify_uploads_in_flight", "gauge", "Uploads currently being received.");
+        out.append("repossify_uploads_in_flight ").append(uploadsInFlight.get()).append('\n');
+
+        header(out, "repossify_auth_duration_seconds", "histogram", "Token lookups, database and BCrypt included.");
+        histogram(out, "repossify_auth_duration_seconds", "", authentications);
+        header(out, "repossify_auth_bcrypt_duration_seconds", "histogram", "Single BCrypt secret checks.");
+        histogram(out, "repossify_auth_bcrypt_duration_seconds", "", bcrypt);
+
+        header(out, "repossify_sqlite_query_duration_seconds", "histogram", "SQLite queries by name.");
+        new TreeMap<>(queries).forEach((query, histogram) ->
+                histogram(out, "repossify_sqlite_query_duration_seconds", "query=\"" + query + "\"", histogram));
+
+        List<Sampled> registered;
+        List<Labeled> registeredLabeled;
+        synchronized (this) {
+            registered = List.copyOf(sampled);
+            registeredLabeled = List.copyOf(labeled);
+        }
+        for (Sampled metric : registered) {
+            header(out, metric.name, metric.type, metric.help);
+            out.append(metric.name).append(' ').append(number(metric.value.getAsDouble())).append('\n');
+        }
+        for (Labeled metric : registeredLabeled) {
+            header(out, metric.name, metric.type, metric.help);
+            new TreeMap<>(metric.values.get()).forEach((value, number) ->
+                    out.append(metric.name).append('{').append(metric.label).append("=\"").append(escape(value))
+                            .append("\"} ").append(number(number.doubleValue())).append('\n'));
+        }
+
+        jvm(out);
+        return out.toString();
+    }
+
+    private void jvm(StringBuilder out) {
+        header(out, "jvm_gc_collections_total", "counter", "Garbage collections by collector.");
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : collectors) {
+            out.append("jvm_gc_collections_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+                    .append(Math.max(0, gc.getCollectionCount())).append('\n');
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector.");
+        for (GarbageCollectorMXBean gc : collectors) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+                    .append(number(Math.max(0, gc.getCollectionTime()) / 1e3)).append('\n');
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_memory_heap_used_bytes", "gauge", "Used heap memory.");
+        out.append("jvm_memory_heap_used_bytes ").append(heap.getUsed()).append('\n');
+        header(out, "jvm_memory_heap_committed_bytes", "gauge", "Committed heap memory.");
+        out.append("jvm_memory_heap_committed_bytes ").append(heap.getCommitted()).append('\n');
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        header(out, "jvm_threads_live", "gauge", "Live platform threads.");
+        out.append("jvm_threads_live ").append(threads.getThreadCount()).append('\n');
+        header(out, "jvm_threads_daemon", "gauge", "Live platform daemon threads.");
+        out.append("jvm_threads_daemon ").append(threads.getDaemonThreadCount()).append('\n');
+        header(out, "jvm_threads_peak", "gauge", "Peak live platform threads since start.");
+        out.append("jvm_threads_peak ").append(threads.getPeakThreadCount()).append('\n');
+        header(out, "jvm_threads_started_total", "counter", "Platform threads started since start.");
+        out.append("jvm_threads_started_total ").append(threads.getTotalStartedThreadCount()).append('\n');
+    }
+
+    int requestsInFlight() {
+        return Math.max(0, requestsInFlight.get());
+    }
+
+    int uploadsInFlight() {
+        return uploadsInFlight.get();
+    }
+
+    long servedBytes() {
+        long total = 0;
+        for (LongAdder bytes : servedBytes.values()) total += bytes.sum();
+        return total;
+    }
+
+    long uploadedBytes() {
+        long total = 0;
+        for (LongAdder bytes : uploadedBytes.values()) total += bytes.sum();
+        return total;
+    }
+
+    long queries() {
+        long total = 0;
+        for (LatencyHistogram histogram : queries.values()) total += histogram.count();
+        return total;
+    }
+
+    @FunctionalInterface
+    interface RouteVisitor {
+        void visit(String method, String route, RouteStats stats);
+    }
+
+    void forEachRoute(RouteVisitor visitor) {
+        new TreeMap<>(routes).forEach((method, byRoute) ->
+                new TreeMap<>(byRoute).forEach((route, stats) -> visitor.visit(method, route, stats)));
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long[] cumulative = histogram.exportedCounts();
+        for (int i = 0; i < LatencyHistogram.EXPORTED_BOUNDS.length; i++) {
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(BigDecimal.valueOf(LatencyHistogram.EXPORTED_BOUNDS[i]).stripTrailingZeros().toPlainString()).append("\"} ").append(cumulative[i]).append('\n');
+        }
+        long count = cumulative[cumulative.length - 1];
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(number(histogram.sumNanos() / 1e9)).append('\n');
+        out.append(name).append("_count").append(suffix).append(count).append('\n');
+    }
+
+    private static void perRepository(StringBuilder out, String name, Map<String, LongAdder> values) {
+        new TreeMap<>(values).forEach((repo, bytes) ->
+                out.append(name).append("{repo=\"").append(escape(repo)).append("\"} ").append(bytes.sum()).append('\n'));
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @return body bytes the handler wrote, including any still buffered when the logger runs
+     */
+    static long bytesWritten(Context ctx) {
+        org.eclipse.jetty.server.Request request = org.eclipse.jetty.server.Request.getBaseRequest(ctx.req());
+        return request == null ? 0 : request.getResponse().getHttpOutput().getWritten();
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
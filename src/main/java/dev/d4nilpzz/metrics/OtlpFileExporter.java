@@ -0,0 +1,261 @@
+package dev.d4nilpzz.metrics;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes finished spans to a local file in the OTLP JSON encoding, one
+ * {@code ExportTraceServiceRequest} per line, as the OpenTelemetry Collector's file exporter
+ * does. The file can be loaded into Jaeger, otel-desktop-viewer and similar tools offline.
+ * <p>
+ * Spans are queued and written by a background thread in batches. When the queue is full, spans
+ * are dropped and counted. The file is rotated to {@code .1} when it exceeds its maximum size.
+ */
+public class OtlpFileExporter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OtlpFileExporter.class);
+    private static final int BATCH = 512;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Path file;
+    private final long maxBytes;
+    private final BlockingQueue<Span> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong exported = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private OutputStream out;
+    private long fileBytes;
+
+    /**
+     * @param file     trace file
+     * @param maxBytes size after which the file is rotated
+     * @param capacity spans queued before new ones are dropped
+     */
+    public OtlpFileExporter(Path file, long maxBytes, int capacity) {
+        this.file = file;
+        this.maxBytes = Math.max(1024 * 1024, maxBytes);
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, capacity));
+        this.writerThread = new Thread(this::writeLoop, "trace-export");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        writerThread.start();
+    }
+
+    void export(Span span) {
+        if (!queue.offer(span)) dropped.increment();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long exported() {
+        return exported.get();
+    }
+
+    /**
+     * Writes out the queued spans and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Span> batch = new ArrayList<>(BATCH);
+        try {
+            while (running) {
+                try {
+                    Span first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                } catch (InterruptedException e) {
+                    if (running) continue;
+                }
+                queue.drainTo(batch, BATCH - batch.size());
+                write(batch);
+                batch.clear();
+            }
+            while (queue.drainTo(batch, BATCH) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(List<Span> spans) {
+        if (spans.isEmpty()) return;
+        try {
+            if (out == null) open();
+            CountingStream counting = new CountingStream(out);
+            try (JsonGenerator json = JSON.createGenerator(counting, JsonEncoding.UTF8)) {
+                json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                request(json, spans);
+            }
+            out.write('\n');
+            out.flush();
+            fileBytes += counting.count + 1;
+            exported.addAndGet(spans.size());
+            if (fileBytes >= maxBytes) rotate();
+        } catch (IOException e) {
+            dropped.add(spans.size());
+            LOGGER.warn("Could not write traces to {}: {}", file, e.getMessage());
+            closeFile();
+        }
+    }
+
+    private static void request(JsonGenerator json, List<Span> spans) throws IOException {
+        json.writeStartObject();
+        json.writeArrayFieldStart("resourceSpans");
+        json.writeStartObject();
+
+        json.writeObjectFieldStart("resource");
+        json.writeArrayFieldStart("attributes");
+        stringAttribute(json, "service.name", "repossify");
+        json.writeEndArray();
+        json.writeEndObject();
+
+        json.writeArrayFieldStart("scopeSpans");
+        json.writeStartObject();
+        json.writeObjectFieldStart("scope");
+        json.writeStringField("name", "dev.d4nilpzz.repossify");
+        json.writeEndObject();
+        json.writeArrayFieldStart("spans");
+        for (Span span : spans) span(json, span);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private static void span(JsonGenerator json, Span span) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("traceId", hex(span.traceIdHigh) + hex(span.traceIdLow));
+        json.writeStringField("spanId", hex(span.spanId));
+        if (span.parent != null) json.writeStringField("parentSpanId", hex(span.parent.spanId));
+        json.writeStringField("name", span.name);
+        json.writeNumberField("kind", span.kind);
+        // 64-bit integers are strings in OTLP JSON.
+        json.writeStringField("startTimeUnixNano", Long.toString(span.startEpochNanos));
+        json.writeStringField("endTimeUnixNano", Long.toString(span.endEpochNanos));
+
+        json.writeArrayFieldStart("attributes");
+        synchronized (span.attributes) {
+            for (int i = 0; i + 1 < span.attributes.size(); i += 2) {
+                String key = (String) span.attributes.get(i);
+                Object value = span.attributes.get(i + 1);
+                if (value instanceof Long number) {
+                    json.writeStartObject();
+                    json.writeStringField("key", key);
+                    json.writeObjectFieldStart("value");
+                    json.writeStringField("intValue", number.toString());
+                    json.writeEndObject();
+                    json.writeEndObject();
+                } else {
+                    stringAttribute(json, key, value.toString());
+                }
+            }
+        }
+        json.writeEndArray();
+
+        json.writeObjectFieldStart("status");
+        if (span.error != null) {
+            json.writeNumberField("code", 2);
+            json.writeStringField("message", span.error);
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static void stringAttribute(JsonGenerator json, String key, String value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("key", key);
+        json.writeObjectFieldStart("value");
+        json.writeStringField("stringValue", value);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0".repeat(16 - digits.length()) + digits;
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        fileBytes = Files.exists(file) ? Files.size(file) : 0;
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                64 * 1024);
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    /**
+     * Counts the bytes of a line on their way to the file.
+     */
+    private static final class CountingStream extends OutputStream {
+        private final OutputStream target;
+        long count;
+
+        CountingStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.d4nilpzz.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A timed operation of a sampled trace, created by {@link Tracing}. Spans of requests that were
+ * not sampled are the shared {@link #NOOP} span, on which every method does nothing.
+ * <p>
+ * Meant to be used with try-with-resources, which ends the span:
+ * <pre>{@code
+ * try (Span span = Tracing.start("storage.write")) {
+ *     span.attribute("bytes", size);
+ *     ...
+ * }
+ * }</pre>
+ */
+public final class Span implements AutoCloseable {
+    static final int KIND_INTERNAL = 1;
+    static final int KIND_SERVER = 2;
+
+    public static final Span NOOP = new Span(null, 0, 0, 0, null, KIND_INTERNAL);
+
+    final Span parent;
+    final long traceIdHigh;
+    final long traceIdLow;
+    final long spanId;
+    final int kind;
+    final long startEpochNanos;
+    volatile String name;
+    long endEpochNanos;
+    String error;
+    // Alternating keys and values, String or Long.
+    final List<Object> attributes;
+
+    Span(Span parent, long traceIdHigh, long traceIdLow, long spanId, String name, int kind) {
+        this.parent = parent;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.name = name;
+        this.kind = kind;
+        this.startEpochNanos = name == null ? 0 : Tracing.epochNanos();
+        this.attributes = name == null ? List.of() : new ArrayList<>(4);
+    }
+
+    /**
+     * @return false for the {@link #NOOP} span of a request that is not traced
+     */
+    public boolean isSampled() {
+        return this != NOOP;
+    }
+
+    /**
+     * Renames the span, e.g. a server span once the route that handled the request is known.
+     */
+    public Span rename(String name) {
+        if (this != NOOP) this.name = name;
+        return this;
+    }
+
+    public Span attribute(String key, String value) {
+        if (this != NOOP && value != null) {
+            synchronized (attributes) {
+                attributes.add(key);
+                attributes.add(value);
+            }
+        }
+        return this;
+    }
+
+    public Span attribute(String key, long value) {
+        if (this != NOOP) {
+            synchronized (attributes) {
+                attributes.add(key);
+                attributes.add(value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Marks the span as failed.
+     */
+    public Span error(Throwable e) {
+        if (this != NOOP) error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        return this;
+    }
+
+    /**
+     * Ends the span and hands it to the exporter. May be called from any thread, only the first
+     * call counts.
+     */
+    @Override
+    public void close() {
+        if (this == NOOP) return;
+        synchronized (this) {
+            if (endEpochNanos != 0) return;
+            endEpochNanos = Tracing.epochNanos();
+        }
+        Tracing.ended(this);
+    }
+}
@@ -0,0 +1,100 @@
+package dev.d4nilpzz.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracing records sampled request traces: a server span per request, with child spans around
+ * authentication, storage I/O, metadata generation and repository tree scans.
+ * <p>
+ * Whether a request is traced is decided once, when it starts. The current span is kept per
+ * thread, so instrumented code does not need a handle: {@link #start} creates a child of the
+ * current span, or returns {@link Span#NOOP} outside a sampled request. With sampling off, that is
+ * a field read and nothing else. Finished spans go to the {@link OtlpFileExporter}.
+ */
+public final class Tracing {
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+
+    private static volatile double sampleRatio;
+    private static volatile OtlpFileExporter exporter;
+
+    private Tracing() {
+    }
+
+    /**
+     * Turns tracing on.
+     *
+     * @param ratio    fraction of requests traced, between 0 and 1
+     * @param exporter receives finished spans
+     */
+    public static void configure(double ratio, OtlpFileExporter exporter) {
+        Tracing.exporter = exporter;
+        Tracing.sampleRatio = Math.max(0, Math.min(1, ratio));
+    }
+
+    /**
+     * Decides whether a request is traced and, if so, makes its server span current on this thread.
+     * Any span left current by a previous request of this thread is dropped.
+     *
+     * @return the server span, {@link Span#NOOP} if the request is not traced
+     */
+    public static Span startRequest(String method, String path) {
+        double ratio = sampleRatio;
+        if (ratio == 0 || ratio < 1 && ThreadLocalRandom.current().nextDouble() >= ratio) {
+            if (ratio != 0) CURRENT.remove();
+            return Span.NOOP;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Span span = new Span(null, random.nextLong(), random.nextLong(), spanId(random), method + " " + path, Span.KIND_SERVER);
+        span.attribute("http.method", method);
+        span.attribute("http.target", path);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a child of the current span and makes it current until it is closed.
+     *
+     * @return the child span, {@link Span#NOOP} if no sampled span is current
+     */
+    public static Span start(String name) {
+        if (sampleRatio == 0) return Span.NOOP;
+        Span parent = CURRENT.get();
+        if (parent == null) return Span.NOOP;
+
+        Span span = new Span(parent, parent.traceIdHigh, parent.traceIdLow, spanId(ThreadLocalRandom.current()),
+                name, Span.KIND_INTERNAL);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Forgets the current span of this thread, once the thread is done with a request.
+     */
+    public static void detach() {
+        if (sampleRatio != 0) CURRENT.remove();
+    }
+
+    static void ended(Span span) {
+        // Restores the parent only on the thread the span is current on; a server span may be ended elsewhere.
+        if (CURRENT.get() == span) {
+            if (span.parent == null) CURRENT.remove();
+            else CURRENT.set(span.parent);
+        }
+        OtlpFileExporter target = exporter;
+        if (target != null) target.export(span);
+    }
+
+    static long epochNanos() {
+        return EPOCH_OFFSET_NANOS + System.nanoTime();
+    }
+
+    private static long spanId(ThreadLocalRandom random) {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
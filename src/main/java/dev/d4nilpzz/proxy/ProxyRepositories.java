@@ -0,0 +1,439 @@
+package dev.d4nilpzz.proxy;
+
+import dev.d4nilpzz.Repossify;
+import dev.d4nilpzz.repos.PageConfigStore;
+import dev.d4nilpzz.repos.RepositoryData;
+import dev.d4nilpzz.repos.RepositoryEvents;
+import dev.d4nilpzz.storage.PartFiles;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ProxyRepositories resolves files of repositories configured with {@code "type": "proxy"} in
+ * {@code page.json} against their upstream {@code url}. A missing artifact is downloaded once and
+ * streamed to the requesting client while it is written to {@code data/repos}; concurrent requests
+ * for the same file wait for that download instead of starting their own. Artifacts are verified
+ * against the upstream SHA-1 before they are kept, and {@code maven-metadata.xml} is refreshed
+ * from upstream once its TTL has passed.
+ * <p>
+ * An artifact is only stored unverified when upstream answers {@code 404} for its checksum. If the
+ * checksum cannot be fetched for any other reason, such as a {@code 5xx}, {@code 429} or timeout,
+ * the artifact is not fetched at all, so a later request can try again.
+ */
+public class ProxyRepositories {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyRepositories.class);
+    private static final Path BASE_PATH = Paths.get("./data/repos");
+    private static final long DEFAULT_METADATA_TTL_SECONDS = 30 * 60;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(30);
+    private static final long FOLLOWER_TIMEOUT_MINUTES = 10;
+    private static final long FAILED_REFRESH_RETRY_SECONDS = 30;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PageConfigStore pageConfig;
+    private final RepositoryEvents events;
+    private final HttpClient http;
+
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> metadataFetchedAt = new ConcurrentHashMap<>();
+
+    public ProxyRepositories(PageConfigStore pageConfig, RepositoryEvents events) {
+        this.pageConfig = pageConfig;
+        this.events = events;
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * @param repo repository name
+     * @return the proxy configuration, or null if the repository is not a proxy
+     */
+    public RepositoryData.Repository proxy(String repo) {
+        RepositoryData.Repository config = pageConfig.get().repository(repo);
+        return config != null && config.isProxy() && config.url != null ? config : null;
+    }
+
+    /**
+     * @param proxy proxy repository configuration
+     * @return how long upstream metadata is reused, in seconds
+     */
+    public static long metadataTtlSeconds(RepositoryData.Repository proxy) {
+        return proxy.metadata_ttl_seconds != null ? proxy.metadata_ttl_seconds : DEFAULT_METADATA_TTL_SECONDS;
+    }
+
+    /**
+     * @param relative path relative to the repositories root
+     * @return true if the path is repository metadata, which changes upstream and is refreshed by TTL
+     */
+    public static boolean isMetadata(Path relative) {
+        return relative.getFileName().toString().startsWith("maven-metadata.xml");
+    }
+
+    /**
+     * Makes sure the local copy of an upstream metadata file is not older than the repository's
+     * metadata TTL. A stale copy is served as it is and refreshed in the background, so requests
+     * never wait for a slow or unreachable upstream; only a missing copy is fetched right away.
+     * After a failed refresh, upstream is tried again after {@value #FAILED_REFRESH_RETRY_SECONDS}
+     * seconds rather than on every request.
+     *
+     * @param proxy    proxy repository configuration
+     * @param relative metadata path relative to the repositories root
+     */
+    public void refreshMetadata(RepositoryData.Repository proxy, Path relative) {
+        String key = key(relative);
+        long ttl = TimeUnit.SECONDS.toNanos(metadataTtlSeconds(proxy));
+        Long fetchedAt = metadataFetchedAt.get(key);
+        if (fetchedAt != null && System.nanoTime() - fetchedAt < ttl) return;
+
+        Flight refresh = () -> {
+            try {
+                boolean stored = download(proxy, relative);
+                metadataFetchedAt.put(key, System.nanoTime());
+                return stored;
+            } catch (IOException e) {
+                metadataFetchedAt.put(key, System.nanoTime() - ttl + TimeUnit.SECONDS.toNanos(FAILED_REFRESH_RETRY_SECONDS));
+                throw e;
+            }
+        };
+        if (!Files.isRegularFile(BASE_PATH.resolve(relative))) {
+            singleFlight(key, refresh);
+            return;
+        }
+
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, mine) != null) return;
+        Thread.ofVirtual().name("metadata-refresh").start(() -> run(key, mine, refresh));
+    }
+
+    /**
+     * Fetches a file that is missing locally from upstream. The first caller streams the
+     * download to its client; concurrent callers wait for it and get false when the file
+     * ended up stored, so they serve it from disk like any other local file.
+     *
+     * @param proxy       proxy repository configuration
+     * @param relative    path relative to the repositories root
+     * @param ctx         request to stream the file to
+     * @param contentType content type of the response
+     * @return true if the response was written, false if the caller should serve the local file
+     * @throws FileNotFoundException if upstream does not have the file
+     * @throws IOException           if the download, or the one this caller waited for, failed or
+     *                               did not match its checksum
+     */
+    public boolean fetch(RepositoryData.Repository proxy, Path relative, Context ctx, String contentType) throws IOException {
+        String key = key(relative);
+        CompletableFuture<Boolean> flight = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, flight);
+
+        if (existing != null) {
+            if (!await(existing)) throw new FileNotFoundException(key);
+            return false;
+        }
+
+        boolean stored = false;
+        Throwable failure = null;
+        try {
+            stored = isMetadata(relative) || isChecksum(relative)
+                    ? download(proxy, relative)
+                    : stream(proxy, relative, ctx, contentType);
+            if (!stored) throw new FileNotFoundException(key);
+            if (isMetadata(relative)) metadataFetchedAt.put(key, System.nanoTime());
+            return !isMetadata(relative) && !isChecksum(relative);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+            // Waiters only answer 404 when upstream did; any other failure is theirs too.
+            if (failure != null) flight.completeExceptionally(failure);
+            else flight.complete(stored);
+        }
+    }
+
+    /**
+     * Thrown when upstream does not have a requested file.
+     */
+    public static final class FileNotFoundException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private FileNotFoundException(String path) {
+            super("Not found upstream: " + path);
+        }
+    }
+
+    private interface Flight {
+        boolean run() throws IOException;
+    }
+
+    private void singleFlight(String key, Flight flight) {
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            try {
+                await(existing);
+            } catch (IOException e) {
+                // The stale copy is kept.
+            }
+            return;
+        }
+        run(key, mine, flight);
+    }
+
+    /**
+     * Runs a flight registered in {@link #inFlight} and completes it for the requests waiting on it.
+     */
+    private void run(String key, CompletableFuture<Boolean> mine, Flight flight) {
+        boolean result = false;
+        Throwable failure = null;
+        try {
+            result = flight.run();
+        } catch (IOException e) {
+            failure = e;
+            LOGGER.warn("Cannot refresh {} from upstream: {}", key, e.getMessage());
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+            if (failure != null) mine.completeExceptionally(failure);
+            else mine.complete(result);
+        }
+    }
+
+    /**
+     * @return true if the flight stored the file, false if upstream does not have it
+     * @throws IOException if the flight failed, or did not finish in time
+     */
+    private static boolean await(CompletableFuture<Boolean> flight) throws IOException {
+        try {
+            return flight.get(FOLLOWER_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a concurrent upstream fetch", e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for a concurrent upstream fetch", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Concurrent upstream fetch failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Downloads a small file completely before storing it.
+     *
+     * @return false if upstream does not have the file
+     */
+    private boolean download(RepositoryData.Repository proxy, Path relative) throws IOException {
+        HttpResponse<byte[]> response = send(upstream(proxy, relative), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 404 || response.statusCode() == 410) return false;
+        if (response.statusCode() != 200) throw new IOException("Upstream answered " + response.statusCode());
+
+        store(relative, tmp -> Files.write(tmp, response.body()));
+        return true;
+    }
+
+    /**
+     * Streams an artifact to the client and to disk at the same time. The last chunk is only
+     * sent once the whole file matched the upstream checksum and it is stored with its checksum;
+     * otherwise the response is aborted short of its length, so the client treats the transfer
+     * as failed.
+     *
+     * @return false if upstream does not have the file
+     */
+    private boolean stream(RepositoryData.Repository proxy, Path relative, Context ctx, String contentType) throws IOException {
+        String expectedSha1 = fetchSha1(proxy, relative);
+
+        HttpResponse<InputStream> response = send(upstream(proxy, relative), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 404 || response.statusCode() == 410) return false;
+            if (response.statusCode() != 200) throw new IOException("Upstream answered " + response.statusCode());
+
+            ctx.contentType(contentType);
+            response.headers().firstValueAsLong("Content-Length")
+                    .ifPresent(length -> ctx.header("Content-Length", String.valueOf(length)));
+
+            MessageDigest sha1 = sha1();
+            ClientSink client = new ClientSink(ctx.res().getOutputStream());
+
+            store(relative, tmp -> {
+                try (OutputStream file = Files.newOutputStream(tmp)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = body.readNBytes(buffer, 0, buffer.length)) > 0) {
+                        file.write(buffer, 0, read);
+                        sha1.update(buffer, 0, read);
+                        buffer = client.hold(buffer, read);
+                    }
+
+                    String actual = HexFormat.of().formatHex(sha1.digest());
+                    if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(actual)) {
+                        throw new IOException("Checksum mismatch for " + relative + ": expected " + expectedSha1 + ", got " + actual);
+                    }
+                }
+            });
+
+            if (expectedSha1 != null) {
+                Path checksum = relative.resolveSibling(relative.getFileName() + ".sha1");
+                store(checksum, tmp -> Files.writeString(tmp, expectedSha1, StandardCharsets.US_ASCII));
+            }
+
+            // Only now that the artifact and its checksum are kept may the client see the end.
+            client.finish();
+            return true;
+        }
+    }
+
+    /**
+     * @return the upstream SHA-1 of an artifact, or null if upstream has none
+     * @throws IOException if the checksum could not be fetched or is malformed
+     */
+    private String fetchSha1(RepositoryData.Repository proxy, Path relative) throws IOException {
+        URI uri = URI.create(upstream(proxy, relative) + ".sha1");
+        HttpResponse<String> response = send(uri.toString(), HttpResponse.BodyHandlers.ofString(StandardCharsets.US_ASCII));
+        if (response.statusCode() == 404) {
+            LOGGER.debug("No upstream checksum for {}, storing unverified", relative);
+            return null;
+        }
+        if (response.statusCode() != 200) throw new IOException("Upstream answered " + response.statusCode() + " for the checksum");
+
+        String sha1 = response.body().trim().split("\\s+")[0].toLowerCase(Locale.ROOT);
+        if (!sha1.matches("[0-9a-f]{40}")) throw new IOException("Malformed upstream checksum for " + relative);
+        return sha1;
+    }
+
+    private interface Writer {
+        void write(Path tmp) throws IOException;
+    }
+
+    private void store(Path relative, Writer writer) throws IOException {
+        Path target = BASE_PATH.resolve(relative);
+        Files.createDirectories(target.getParent());
+
+        Path tmp = PartFiles.next(target);
+        try {
+            writer.write(tmp);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        events.fileStored(target);
+    }
+
+    private <T> HttpResponse<T> send(String uri, HttpResponse.BodyHandler<T> handler) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(RESPONSE_TIMEOUT)
+                .header("User-Agent", "Repossify/" + Repossify.VERSION)
+                .GET()
+                .build();
+        try {
+            return http.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + uri, e);
+        }
+    }
+
+    private static String upstream(RepositoryData.Repository proxy, Path relative) throws FileNotFoundException {
+        // The repository root itself is not a file upstream.
+        if (relative.getNameCount() < 2) throw new FileNotFoundException(key(relative));
+        String base = proxy.url.endsWith("/") ? proxy.url.substring(0, proxy.url.length() - 1) : proxy.url;
+        return base + "/" + key(relative.subpath(1, relative.getNameCount()));
+    }
+
+    private static boolean isChecksum(Path relative) {
+        String name = relative.getFileName().toString();
+        return name.endsWith(".sha1") || name.endsWith(".md5") || name.endsWith(".sha256") || name.endsWith(".sha512");
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(Path relative) {
+        return relative.toString().replace('\\', '/');
+    }
+
+    /**
+     * Client side of the tee. Once the client goes away the download keeps going, so the
+     * file still ends up stored for the requests waiting on it.
+     */
+    private static final class ClientSink {
+        private final OutputStream out;
+        private boolean gone;
+        // The latest chunk, held back until the download is known to be good.
+        private byte[] held = new byte[BUFFER_SIZE];
+        private int heldLength;
+
+        private ClientSink(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Sends the chunk held back so far and holds back this one instead.
+         *
+         * @return a buffer to read the next chunk into
+         */
+        private byte[] hold(byte[] chunk, int length) {
+            write(held, heldLength);
+            byte[] free = held;
+            held = chunk;
+            heldLength = length;
+            return free;
+        }
+
+        /**
+         * Sends the chunk held back and flushes the response.
+         */
+        private void finish() {
+            write(held, heldLength);
+            heldLength = 0;
+            flush();
+        }
+
+        private void write(byte[] bytes, int length) {
+            if (gone || length == 0) return;
+            try {
+                out.write(bytes, 0, length);
+            } catch (IOException e) {
+                gone = true;
+            }
+        }
+
+        private void flush() {
+            if (gone) return;
+            try {
+                out.flush();
+            } catch (IOException e) {
+                gone = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package dev.d4nilpzz.repos;
+
+import dev.d4nilpzz.utils.MavenUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * GroupRepositories backs repositories configured with {@code "type": "group"} in {@code page.json}.
+ * A group has no files of its own: each path is looked up in its {@code members}, in order, and the
+ * member that answered is remembered so repeat requests go straight to it. Artifact-level
+ * {@code maven-metadata.xml} is merged across all members and cached together with its checksums.
+ * Both caches are dropped for a path when a member stores or deletes it, and entirely when the
+ * configuration changes. Routes are kept in a concurrent map that drops an arbitrary tenth of its
+ * entries when full, so lookups never wait on each other; a dropped route only costs one more walk
+ * through the members. A merge that raced with a change is served once but not cached.
+ */
+public class GroupRepositories implements RepositoryEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupRepositories.class);
+    private static final String METADATA = "maven-metadata.xml";
+    private static final int MAX_ROUTES = 100_000;
+    private static final Map<String, String> CHECKSUMS = Map.of(
+            ".md5", "MD5", ".sha1", "SHA-1", ".sha256", "SHA-256", ".sha512", "SHA-512"
+    );
+
+    private final PageConfigStore pageConfig;
+    private final Map<String, String> routes = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final Map<String, Merged> metadata = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile long configVersion;
+
+    private record Merged(byte[] bytes, long expiresAt, Map<String, byte[]> checksums) {
+    }
+
+    public GroupRepositories(PageConfigStore pageConfig) {
+        this.pageConfig = pageConfig;
+    }
+
+    /**
+     * @param repo repository name
+     * @return the group configuration, or null if the repository is not a group
+     */
+    public RepositoryData.Repository group(String repo) {
+        RepositoryData.Repository config = pageConfig.get().repository(repo);
+        return config != null && config.isGroup() && config.members != null ? config : null;
+    }
+
+    /**
+     * @param group group configuration
+     * @return member repositories in resolution order; nested groups are skipped
+     */
+    public List<String> members(RepositoryData.Repository group) {
+        PageConfigStore.Snapshot snapshot = pageConfig.get();
+        List<String> members = new ArrayList<>();
+        for (String member : group.members) {
+            RepositoryData.Repository config = snapshot.repository(member);
+            if (member.equals(group.name) || (config != null && config.isGroup())) continue;
+            members.add(member);
+        }
+        return members;
+    }
+
+    /**
+     * @param group group name
+     * @param path  path inside the group
+     * @return the member that served this path last time, or null if unknown
+     */
+    public String route(String group, String path) {
+        checkConfigVersion();
+        return routes.get(group + "/" + path);
+    }
+
+    /**
+     * Remembers which member serves a path.
+     *
+     * @param group  group name
+     * @param path   path inside the group
+     * @param member member that served it
+     */
+    public void remember(String group, String path, String member) {
+        if (routes.size() >= MAX_ROUTES && evicting.compareAndSet(false, true)) {
+            try {
+                evictRoutes();
+            } finally {
+                evicting.set(false);
+            }
+        }
+        routes.put(group + "/" + path, member);
+    }
+
+    /**
+     * Forgets a route that turned out to be stale.
+     *
+     * @param group group name
+     * @param path  path inside the group
+     */
+    public void forget(String group, String path) {
+        routes.remove(group + "/" + path);
+    }
+
+    /**
+     * @param path path inside the group
+     * @return true if the path is {@code maven-metadata.xml} or one of its checksums
+     */
+    public static boolean isMetadata(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.equals(METADATA)) return true;
+        return name.startsWith(METADATA) && CHECKSUMS.containsKey(name.substring(METADATA.length()));
+    }
+
+    /**
+     * Returns the merged metadata of a path, or one of its checksums.
+     *
+     * @param group    group configuration
+     * @param path     path inside the group, ending in {@code maven-metadata.xml} or a checksum of it
+     * @param reader   reads a member file given its path relative to the repositories root, null if missing
+     * @param ttlOf    metadata TTL in seconds of a member, or null if its metadata never goes stale
+     * @return the merged bytes, or null if no member has metadata for this path
+     */
+    public byte[] metadata(RepositoryData.Repository group, String path,
+                           Function<Path, byte[]> reader, Function<String, Long> ttlOf) {
+        checkConfigVersion();
+
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        String suffix = name.substring(METADATA.length());
+        String metadataPath = path.substring(0, path.length() - suffix.length());
+        String key = group.name + "/" + metadataPath;
+
+        Merged merged = metadata.get(key);
+        if (merged == null || merged.expiresAt - System.nanoTime() < 0) {
+            long seen = invalidations.get();
+            merged = merge(group, metadataPath, reader, ttlOf);
+            if (merged == null) {
+                metadata.remove(key);
+                return null;
+            }
+            metadata.put(key, merged);
+            // A member changed while it was read: this caller gets the merge, the next one merges again.
+            if (invalidations.get() != seen) metadata.remove(key, merged);
+        }
+
+        return suffix.isEmpty() ? merged.bytes : merged.checksums.get(suffix);
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        invalidate(path, false);
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        invalidate(path, true);
+    }
+
+    private void invalidate(Path changed, boolean subtree) {
+        invalidations.incrementAndGet();
+        String repo = changed.getName(0).toString();
+        String inner = changed.getNameCount() > 1
+                ? changed.subpath(1, changed.getNameCount()).toString().replace('\\', '/')
+                : "";
+
+        for (RepositoryData.Repository repository : pageConfig.get().page().repositories) {
+            if (!repository.isGroup() || repository.members == null || !repository.members.contains(repo)) continue;
+
+            String key = inner.isEmpty() ? repository.name : repository.name + "/" + inner;
+            String prefix = key + "/";
+            routes.remove(key);
+            if (subtree) routes.keySet().removeIf(k -> k.startsWith(prefix));
+            metadata.remove(key);
+
+            // Merged metadata of every directory above the change may list it.
+            for (int slash = key.lastIndexOf('/'); slash > 0; slash = key.lastIndexOf('/', slash - 1)) {
+                metadata.remove(key.substring(0, slash + 1) + METADATA);
+            }
+
+            if (subtree) metadata.keySet().removeIf(k -> k.startsWith(prefix));
+        }
+    }
+
+    private void checkConfigVersion() {
+        long version = pageConfig.get().version();
+        if (version == configVersion) return;
+
+        synchronized (this) {
+            if (version == configVersion) return;
+            invalidations.incrementAndGet();
+            routes.clear();
+            metadata.clear();
+            configVersion = version;
+        }
+    }
+
+    private void evictRoutes() {
+        int excess = routes.size() - MAX_ROUTES + MAX_ROUTES / 10;
+        for (Iterator<String> it = routes.keySet().iterator(); it.hasNext() && excess > 0; excess--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Merged merge(RepositoryData.Repository group, String metadataPath,
+                         Function<Path, byte[]> reader, Function<String, Long> ttlOf) {
+        byte[] first = null;
+        String groupId = null;
+        String artifactId = null;
+        Set<String> versions = new TreeSet<>();
+        String lastUpdated = null;
+        long ttlSeconds = Long.MAX_VALUE;
+
+        for (String member : members(group)) {
+            Long ttl = ttlOf.apply(member);
+            if (ttl != null) ttlSeconds = Math.min(ttlSeconds, ttl);
+
+            byte[] bytes = reader.apply(Path.of(member).resolve(metadataPath));
+            if (bytes == null) continue;
+            if (first == null) first = bytes;
+
+            try {
+                Element root = parse(bytes).getDocumentElement();
+                if (groupId == null) groupId = text(root, "groupId");
+                if (artifactId == null) artifactId = text(root, "artifactId");
+
+                // yyyyMMddHHmmss, so the newest one is also the greatest string.
+                String updated = versioning(root, "lastUpdated");
+                if (updated != null && (lastUpdated == null || updated.compareTo(lastUpdated) > 0)) lastUpdated = updated;
+
+                NodeList nodes = root.getElementsByTagName("version");
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    // Only <versions><version>, the top-level <version/> is the snapshot version
+                    if (!"versions".equals(nodes.item(i).getParentNode().getNodeName())) continue;
+                    String version = nodes.item(i).getTextContent().trim();
+                    if (!version.isEmpty()) versions.add(version);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Ignoring unreadable metadata {}/{}: {}", member, metadataPath, e.getMessage());
+            }
+        }
+
+        if (first == null) return null;
+
+        // Plugin group or snapshot metadata carry no version list to merge, so the first member wins.
+        byte[] bytes;
+        if (groupId == null || artifactId == null || versions.isEmpty()) {
+            bytes = first;
+        } else {
+            String merged = lastUpdated == null
+                    ? MavenUtils.generateMavenMetadata(groupId, artifactId, versions)
+                    : MavenUtils.generateMavenMetadata(groupId, artifactId, versions, lastUpdated);
+            bytes = merged.getBytes(StandardCharsets.UTF_8);
+        }
+
+        Map<String, byte[]> checksums = new HashMap<>();
+        for (Map.Entry<String, String> checksum : CHECKSUMS.entrySet()) {
+            checksums.put(checksum.getKey(), HexFormat.of().formatHex(digest(checksum.getValue(), bytes))
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+
+        long expiresAt = ttlSeconds == Long.MAX_VALUE
+                ? System.nanoTime() + TimeUnit.DAYS.toNanos(365)
+                : System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        return new Merged(bytes, expiresAt, checksums);
+    }
+
+    private static Document parse(byte[] bytes) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setExpandEntityReferences(false);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+    }
+
+    private static String text(Element root, String tag) {
+        NodeList nodes = root.getElementsByTagName(tag);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i).getParentNode() == root) {
+                String value = nodes.item(i).getTextContent().trim();
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return text of a direct child of {@code <versioning>}, or null
+     */
+    private static String versioning(Element root, String tag) {
+        NodeList nodes = root.getElementsByTagName(tag);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if ("versioning".equals(nodes.item(i).getParentNode().getNodeName())) {
+                String value = nodes.item(i).getTextContent().trim();
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] digest(String algorithm, byte[] bytes) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package dev.d4nilpzz.repos;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PageConfigStore keeps {@code data/page.json} in memory as an immutable, versioned snapshot.
+ * Readers never touch the disk. Writers publish a new snapshot with {@link #compareAndSet},
+ * which only succeeds if no other update happened since the expected snapshot was read,
+ * and persist it through a temporary file that is atomically moved over the original.
+ * External edits of the file are picked up by a background file watcher.
+ */
+public class PageConfigStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageConfigStore.class);
+    private static final Path PAGE_CONFIG_PATH = Paths.get("./data/page.json");
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final Object writeLock = new Object();
+
+    /**
+     * An immutable view of the page configuration at a given version.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final ObjectNode tree;
+        private final byte[] bytes;
+        private final RepositoryData page;
+
+        private Snapshot(long version, ObjectNode tree, byte[] bytes) throws IOException {
+            this.version = version;
+            this.tree = tree;
+            this.bytes = bytes;
+            this.page = mapper.treeToValue(tree, RepositoryData.class);
+            this.page.links = page.links == null ? null : List.copyOf(page.links);
+            this.page.repositories = page.repositories == null ? List.of() : List.copyOf(page.repositories);
+        }
+
+        /**
+         * @return version number, incremented on every published change
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * @return a mutable copy of the raw JSON configuration
+         */
+        public ObjectNode tree() {
+            return tree.deepCopy();
+        }
+
+        /**
+         * @return a shallow copy of the parsed configuration that callers may modify
+         */
+        public RepositoryData page() {
+            RepositoryData copy = new RepositoryData();
+            copy.title = page.title;
+            copy.author = page.author;
+            copy.group_id = page.group_id;
+            copy.description = page.description;
+            copy.avatar_url = page.avatar_url;
+            copy.links = page.links;
+            copy.repositories = page.repositories;
+            return copy;
+        }
+
+        /**
+         * @param name repository name
+         * @return the configured repository entry, or null if the repository is not configured
+         */
+        public RepositoryData.Repository repository(String name) {
+            for (RepositoryData.Repository repo : page.repositories) {
+                if (repo.name != null && repo.name.equals(name)) return repo;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Loads the current configuration from disk.
+     *
+     * @throws IOException if the configuration cannot be read or parsed
+     */
+    public PageConfigStore() throws IOException {
+        byte[] bytes = Files.readAllBytes(PAGE_CONFIG_PATH);
+        current.set(new Snapshot(1, (ObjectNode) mapper.readTree(bytes), bytes));
+    }
+
+    /**
+     * @return the latest published snapshot
+     */
+    public Snapshot get() {
+        return current.get();
+    }
+
+    /**
+     * Persists and publishes a new configuration if the current snapshot is still {@code expected}.
+     *
+     * @param expected snapshot the update was computed from
+     * @param next     new configuration
+     * @return the published snapshot, or null if another update won the race
+     * @throws IOException if the configuration cannot be written
+     */
+    public Snapshot compareAndSet(Snapshot expected, ObjectNode next) throws IOException {
+        synchronized (writeLock) {
+            if (current.get() != expected) return null;
+
+            byte[] bytes = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(next);
+            Snapshot snapshot = new Snapshot(expected.version + 1, next.deepCopy(), bytes);
+
+            Path tmp = PAGE_CONFIG_PATH.resolveSibling(PAGE_CONFIG_PATH.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.write(tmp, bytes);
+                Files.move(tmp, PAGE_CONFIG_PATH, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+
+            current.set(snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Starts a daemon thread that reloads the configuration when {@code page.json} is changed
+     * outside of Repossify. Changes that fail to parse are logged and ignored.
+     */
+    public void startWatching() {
+        Path dir = PAGE_CONFIG_PATH.toAbsolutePath().getParent();
+        WatchService watcher;
+        try {
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot watch {} for changes: {}", PAGE_CONFIG_PATH, e.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                    // Editors often write in several steps, give them a moment to finish.
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                boolean changed = key.pollEvents().stream()
+                        .anyMatch(e -> PAGE_CONFIG_PATH.getFileName().equals(e.context()));
+                key.reset();
+
+                if (changed) reload();
+            }
+        }, "page-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void reload() {
+        synchronized (writeLock) {
+            try {
+                byte[] bytes = Files.readAllBytes(PAGE_CONFIG_PATH);
+                Snapshot snapshot = current.get();
+                if (Arrays.equals(bytes, snapshot.bytes)) return;
+
+                current.set(new Snapshot(snapshot.version + 1, (ObjectNode) mapper.readTree(bytes), bytes));
+                LOGGER.info("Reloaded {} (version {})", PAGE_CONFIG_PATH, snapshot.version + 1);
+            } catch (IOException | ClassCastException e) {
+                LOGGER.warn("Ignoring invalid {}: {}", PAGE_CONFIG_PATH, e.getMessage());
+            }
+        }
+    }
+}
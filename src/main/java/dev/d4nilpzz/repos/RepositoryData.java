@@ -1,7 +1,8 @@
 package dev.d4nilpzz.repos;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.d4nilpzz.storage.PartFiles;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,10 +11,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class RepositoryData {
-    private static final ObjectMapper mapper = new ObjectMapper();
     public String title;
     public String author;
     public String group_id;
@@ -22,45 +23,54 @@ public class RepositoryData {
     public List<Link> links;
     public List<Repository> repositories;
 
-    public static RepositoryData loadPageConfig() throws IOException {
-        return mapper.readValue(new File("./data/page.json"), RepositoryData.class);
-    }
-
-    private static List<TreeNode> loadRepoTree(Path rootPath, Path currentPath, String basePath) throws IOException {
+    /**
+     * Lists a directory of a repository as a tree, recursively.
+     *
+     * @param currentPath directory to list
+     * @param basePath    tree path of the directory, e.g. {@code /releases/com/example}
+     * @return child nodes sorted by name, empty if the directory does not exist
+     */
+    public static List<TreeNode> loadRepoTree(Path currentPath, String basePath) throws IOException {
         List<TreeNode> nodes = new ArrayList<>();
         if (!Files.exists(currentPath) || !Files.isDirectory(currentPath)) return nodes;
 
-        Files.list(currentPath)
-                .sorted(Comparator.comparing(p -> p.getFileName().toString()))
-                .forEach(path -> {
-                    TreeNode node = new TreeNode();
-                    node.name = path.getFileName().toString();
-                    node.path = basePath + "/" + node.name;
-
-                    if (Files.isDirectory(path)) {
-                        node.type = "directory";
-                        try {
-                            node.children = loadRepoTree(rootPath, path, node.path);
-                        } catch (IOException e) {
-                            node.children = new ArrayList<>();
-                        }
-                        node.size = null;
-                        node.version = null;
-                        node.artifactId = null;
-                        node.groupId = null;
-                    } else {
-                        node.type = "file";
-                        node.size = path.toFile().length();
-                        node.children = null;
-
-                        // only .jar/.pom files get version
-                        if (node.name.endsWith(".jar") || node.name.endsWith(".pom")) {
-                            Path versionDir = path.getParent();
-                            node.version = versionDir.getFileName().toString();
-                        }
-                    }
-                    nodes.add(node);
-                });
+        List<Path> children;
+        try (Stream<Path> listing = Files.list(currentPath)) {
+            children = listing.sorted(Comparator.comparing(p -> p.getFileName().toString())).toList();
+        }
+
+        for (Path path : children) {
+            // Left behind by an interrupted write.
+            if (PartFiles.isPartFile(path.getFileName().toString())) continue;
+
+            TreeNode node = new TreeNode();
+            node.name = path.getFileName().toString();
+            node.path = basePath + "/" + node.name;
+
+            if (Files.isDirectory(path)) {
+                node.type = "directory";
+                try {
+                    node.children = loadRepoTree(path, node.path);
+                } catch (IOException e) {
+                    node.children = new ArrayList<>();
+                }
+                node.size = null;
+                node.version = null;
+                node.artifactId = null;
+                node.groupId = null;
+            } else {
+                node.type = "file";
+                node.size = path.toFile().length();
+                node.children = null;
+
+                // only .jar/.pom files get version
+                if (node.name.endsWith(".jar") || node.name.endsWith(".pom")) {
+                    Path versionDir = path.getParent();
+                    node.version = versionDir.getFileName().toString();
+                }
+            }
+            nodes.add(node);
+        }
 
         return nodes;
     }
@@ -83,7 +93,7 @@ public class RepositoryData {
             repo.path = "/" + repoDir.getName();
 
             Path releasesRoot = repoDir.toPath();
-            repo.tree = loadRepoTree(repoDir.toPath(), repoDir.toPath(), "/" + repoDir.getName());
+            repo.tree = loadRepoTree(repoDir.toPath(), "/" + repoDir.getName());
 
             repos.add(repo);
         }
@@ -105,6 +115,30 @@ public class RepositoryData {
         public String path;
         public boolean isPrivate;
         public List<TreeNode> tree;
+
+        // "local" (default), "proxy" or "group"
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String type;
+
+        // proxy only: upstream repository URL and how long upstream maven-metadata.xml is reused
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String url;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public Long metadata_ttl_seconds;
+
+        // group only: member repositories, resolved in this order
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public List<String> members;
+
+        @JsonIgnore
+        public boolean isProxy() {
+            return "proxy".equalsIgnoreCase(type);
+        }
+
+        @JsonIgnore
+        public boolean isGroup() {
+            return "group".equalsIgnoreCase(type);
+        }
     }
 
 
@@ -0,0 +1,96 @@
+package dev.d4nilpzz.repos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RepositoryEvents dispatches storage changes made through the API (uploads,
+ * generated metadata/POMs and deletions) to the components that keep in-memory
+ * views of {@code data/repos}, such as the search index and caches.
+ * Paths handed to listeners are always relative to the repositories root,
+ * e.g. {@code releases/com/example/lib/1.0/lib-1.0.jar}.
+ */
+public class RepositoryEvents {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryEvents.class);
+    private static final Path BASE_PATH = Paths.get("./data/repos").toAbsolutePath().normalize();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives storage change notifications. Implementations must be thread-safe,
+     * as events are published from request threads.
+     */
+    public interface Listener {
+        /**
+         * Called after a file has been fully written.
+         *
+         * @param path file path relative to the repositories root
+         */
+        default void onFileStored(Path path) {
+        }
+
+        /**
+         * Called after a file or a whole directory has been deleted.
+         *
+         * @param path deleted path relative to the repositories root
+         */
+        default void onPathDeleted(Path path) {
+        }
+    }
+
+    /**
+     * Registers a listener for all subsequent events.
+     *
+     * @param listener listener to register
+     */
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Publishes a stored file.
+     *
+     * @param file written file, absolute or relative to the working directory
+     */
+    public void fileStored(Path file) {
+        Path relative = relativize(file);
+        if (relative == null) return;
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onFileStored(relative);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Listener failed for stored file {}: {}", relative, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Publishes a deleted file or directory.
+     *
+     * @param path deleted path, absolute or relative to the working directory
+     */
+    public void pathDeleted(Path path) {
+        Path relative = relativize(path);
+        if (relative == null) return;
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onPathDeleted(relative);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Listener failed for deleted path {}: {}", relative, e.getMessage());
+            }
+        }
+    }
+
+    private static Path relativize(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (!absolute.startsWith(BASE_PATH) || absolute.equals(BASE_PATH)) return null;
+        return BASE_PATH.relativize(absolute);
+    }
+}
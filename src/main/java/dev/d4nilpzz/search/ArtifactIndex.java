@@ -0,0 +1,702 @@
+package dev.d4nilpzz.search;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+import dev.d4nilpzz.storage.PartFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * ArtifactIndex is an in-memory search index over every artifact file stored in
+ * {@code data/repos}. Each file is indexed by groupId, artifactId, version and file name.
+ * Terms live in a sorted dictionary for prefix matches, with sorted id posting lists per term,
+ * and a trigram index over the same terms provides fuzzy matches when no prefix matches.
+ * The versions of every artifact are kept as well, to answer latest-version lookups.
+ * The index is built once at startup and kept current through {@link RepositoryEvents}.
+ */
+public class ArtifactIndex implements RepositoryEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactIndex.class);
+    private static final Path BASE_PATH = Paths.get("./data/repos");
+
+    private static final int MAX_CANDIDATES_PER_RESULT = 8;
+    private static final int MAX_EXAMINED_PER_CANDIDATE = 64;
+    private static final int MAX_LOOKUP_TERMS = 32;
+    private static final int MAX_UNION_POSTINGS = 1 << 18;
+    private static final double MIN_FUZZY_SIMILARITY = 0.45;
+    private static final Set<String> IGNORED_SUFFIXES = Set.of(".md5", ".sha1", ".sha256", ".sha512");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Artifact> byPath = new HashMap<>();
+    private final List<Artifact> slots = new ArrayList<>();
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private final Map<String, String> canonical = new HashMap<>();
+    // artifact directory ("/repo/group/.../artifactId") -> version -> number of indexed files
+    private final Map<String, Map<String, Integer>> versions = new HashMap<>();
+    // "groupId:artifactId" -> artifact directories holding it, one per repository
+    private final Map<String, Set<String>> coordinates = new HashMap<>();
+    // Changes seen while a rebuild scans the disk, replayed onto what it found; null otherwise.
+    private List<Change> changedDuringRebuild;
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    /**
+     * A file stored, or a path deleted, while a rebuild was running.
+     */
+    private record Change(Artifact stored, String deleted) {
+    }
+
+    /**
+     * A single indexed artifact file. Identity is the tree path.
+     */
+    public static final class Artifact {
+        public final String repo;
+        public final String groupId;
+        public final String artifactId;
+        public final String version;
+        public final String name;
+        public final String path;     // as shown in the page tree, e.g. /releases/com/example/...
+        public final long size;
+
+        private final String[] terms;
+        private final String artifactTerm;
+        private int id = -1;
+
+        Artifact(String repo, String groupId, String artifactId, String version,
+                 String name, String path, long size) {
+            this.repo = repo;
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.terms = buildTerms(groupId, artifactId, version, name);
+            this.artifactTerm = artifactId.toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Artifact other && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        private static String[] buildTerms(String groupId, String artifactId, String version, String name) {
+            List<String> out = new ArrayList<>();
+            out.add(groupId.toLowerCase(Locale.ROOT));
+            for (String segment : groupId.split("\\.")) {
+                out.add(segment.toLowerCase(Locale.ROOT));
+            }
+            out.add(artifactId.toLowerCase(Locale.ROOT));
+            for (String part : artifactId.split("[-_.]")) {
+                out.add(part.toLowerCase(Locale.ROOT));
+            }
+            out.add(version.toLowerCase(Locale.ROOT));
+            out.add(name.toLowerCase(Locale.ROOT));
+            return out.stream().filter(s -> !s.isEmpty()).distinct().toArray(String[]::new);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the contents of {@code data/repos}, picking up files that were
+     * copied in without going through the API. Uploads and deletes during the rebuild are kept.
+     */
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            scan();
+        } finally {
+            rebuilding.unlock();
+        }
+    }
+
+    private void scan() {
+        long start = System.nanoTime();
+        List<Artifact> found = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (Files.isDirectory(BASE_PATH)) {
+            try {
+                Files.walkFileTree(BASE_PATH, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        Artifact artifact = parse(BASE_PATH.relativize(file), attrs.size());
+                        if (artifact != null) found.add(artifact);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.error("Error scanning repositories for the search index: {}", e.getMessage());
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            load(found);
+            // The walk may have passed a directory before a file in it was stored or deleted.
+            for (Change change : changedDuringRebuild) {
+                if (change.stored != null) store(change.stored);
+                else remove(change.deleted);
+            }
+            changedDuringRebuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LOGGER.info("Search index built with {} artifacts in {} ms",
+                found.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        long size;
+        try {
+            size = Files.size(BASE_PATH.resolve(path));
+        } catch (IOException e) {
+            size = 0;
+        }
+
+        Artifact artifact = parse(path, size);
+        if (artifact == null) return;
+
+        lock.writeLock().lock();
+        try {
+            store(artifact);
+            if (changedDuringRebuild != null) changedDuringRebuild.add(new Change(artifact, null));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        String prefix = toTreePath(path);
+
+        lock.writeLock().lock();
+        try {
+            remove(prefix);
+            if (changedDuringRebuild != null) changedDuringRebuild.add(new Change(null, prefix));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void store(Artifact artifact) {
+        Artifact previous = byPath.get(artifact.path);
+        if (previous != null) delete(previous);
+        put(artifact);
+    }
+
+    private void remove(String prefix) {
+        List<Artifact> removed = byPath.values().stream()
+                .filter(a -> a.path.equals(prefix) || a.path.startsWith(prefix + "/"))
+                .toList();
+        removed.forEach(this::delete);
+
+        // Ids are never reused, so compact once deletions leave too many holes.
+        if (slots.size() > 2 * byPath.size() + 1024) {
+            load(new ArrayList<>(byPath.values()));
+        }
+    }
+
+    /**
+     * Searches the index. Every whitespace, {@code :} or {@code /} separated token of the
+     * query must prefix-match one of the artifact terms; tokens without any prefix match
+     * fall back to trigram similarity. Results are ranked by match quality.
+     *
+     * @param query free text query, e.g. {@code com.example:lib 1.2}
+     * @param repos predicate on the repository name, used to restrict the search
+     * @param limit maximum number of results
+     * @return matching artifacts, best matches first
+     */
+    public List<Artifact> search(String query, Predicate<String> repos, int limit) {
+        if (query == null || limit <= 0) return List.of();
+
+        List<String> tokens = Arrays.stream(query.toLowerCase(Locale.ROOT).split("[\\s:/]+"))
+                .filter(t -> !t.isEmpty())
+                .distinct()
+                .toList();
+        if (tokens.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            List<TokenMatcher> matchers = new ArrayList<>();
+            for (String token : tokens) {
+                TokenMatcher matcher = matcherFor(token);
+                if (matcher == null) return List.of();
+                matchers.add(matcher);
+            }
+
+            // Drive candidate generation from the most selective token and verify the rest per id.
+            TokenMatcher driver = matchers.stream()
+                    .min(Comparator.comparingLong(m -> m.postings))
+                    .orElseThrow();
+            for (TokenMatcher matcher : matchers) {
+                if (matcher != driver) matcher.prepareUnion();
+            }
+
+            int maxCandidates = Math.max(limit * MAX_CANDIDATES_PER_RESULT, 64);
+            int maxExamined = maxCandidates * MAX_EXAMINED_PER_CANDIDATE;
+            Map<Artifact, Double> scored = new HashMap<>();
+            int examined = 0;
+
+            scan:
+            for (String term : driver.terms()) {
+                Postings postings = terms.get(term);
+                for (int i = 0; i < postings.size; i++) {
+                    if (++examined > maxExamined) break scan;
+
+                    double score = score(postings.ids[i], matchers);
+                    if (score == 0) continue;
+
+                    Artifact artifact = slots.get(postings.ids[i]);
+                    if (!repos.test(artifact.repo)) continue;
+
+                    for (TokenMatcher matcher : matchers) {
+                        if (matcher.match(artifact.artifactTerm) > 0) score += 0.5;
+                    }
+                    scored.merge(artifact, score, Math::max);
+                    if (scored.size() >= maxCandidates) break scan;
+                }
+            }
+
+            return scored.entrySet().stream()
+                    .sorted(Map.Entry.<Artifact, Double>comparingByValue().reversed()
+                            .thenComparing(e -> e.getKey().path))
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tells whether a path points into a version directory that the index knows does not exist:
+     * the artifact has indexed versions, but not this one. Only file names following the Maven
+     * {@code artifactId-version} pattern are considered, so metadata, snapshot builds and paths
+     * that merely look like a version directory (nested groups) are never reported as missing.
+     * <p>
+     * The answer comes from the index alone, without touching the disk. Files copied in without
+     * going through the API are picked up by the next {@link #rebuild()}.
+     *
+     * @param relative path relative to the repositories root, e.g. {@code releases/com/example/lib/9.9/lib-9.9.pom}
+     * @return true if the version is known to be absent
+     */
+    public boolean isMissingVersion(Path relative) {
+        int count = relative.getNameCount();
+        if (count < 5) return false;
+
+        String version = relative.getName(count - 2).toString();
+        String artifactId = relative.getName(count - 3).toString();
+        if (!relative.getFileName().toString().startsWith(artifactId + "-" + version)) return false;
+
+        String artifactPath = toTreePath(relative.subpath(0, count - 2));
+
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> known = versions.get(artifactPath);
+            return known != null && !known.containsKey(version);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists the indexed versions of an artifact in every repository that holds it.
+     *
+     * @param groupId    e.g. {@code com.example}
+     * @param artifactId e.g. {@code lib}
+     * @param repos      predicate on the repository name, used to restrict the lookup
+     * @return repository name to its versions of the artifact, empty if none is indexed
+     */
+    public Map<String, List<String>> versionsOf(String groupId, String artifactId, Predicate<String> repos) {
+        lock.readLock().lock();
+        try {
+            Set<String> directories = coordinates.get(groupId + ':' + artifactId);
+            if (directories == null) return Map.of();
+
+            Map<String, List<String>> out = new TreeMap<>();
+            for (String directory : directories) {
+                String repo = directory.substring(1, directory.indexOf('/', 1));
+                if (repos.test(repo)) out.put(repo, List.copyOf(versions.get(directory).keySet()));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed artifacts
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimates the heap retained by the index, counting strings, map entries
+     * and posting lists with typical 64-bit compressed-oops object sizes.
+     *
+     * @return approximate retained size in bytes
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = slots.size() * 4L;
+            for (String s : canonical.keySet()) {
+                bytes += 32 + stringBytes(s);
+            }
+            for (Artifact artifact : byPath.values()) {
+                bytes += 32 + 56 + 16 + artifact.terms.length * 4L
+                        + stringBytes(artifact.name) + stringBytes(artifact.path);
+            }
+            for (Map.Entry<String, Postings> e : terms.entrySet()) {
+                bytes += 40 + 32 + 16 + e.getValue().ids.length * 4L;
+            }
+            for (Map.Entry<String, Set<String>> e : trigrams.entrySet()) {
+                bytes += 32 + stringBytes(e.getKey()) + 48 + e.getValue().size() * 36L;
+            }
+            for (Map.Entry<String, Map<String, Integer>> e : versions.entrySet()) {
+                bytes += 32 + stringBytes(e.getKey()) + 48 + e.getValue().size() * 48L;
+            }
+            for (Map.Entry<String, Set<String>> e : coordinates.entrySet()) {
+                bytes += 32 + stringBytes(e.getKey()) + 48 + e.getValue().size() * 36L;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TokenMatcher matcherFor(String token) {
+        String ceiling = terms.ceilingKey(token);
+        if (ceiling != null && ceiling.startsWith(token)) {
+            return new TokenMatcher(token, null);
+        }
+
+        Map<String, Double> fuzzy = fuzzyTerms(token);
+        return fuzzy.isEmpty() ? null : new TokenMatcher(token, fuzzy);
+    }
+
+    private Map<String, Double> fuzzyTerms(String token) {
+        Set<String> grams = grams(token);
+        if (grams.isEmpty()) return Map.of();
+
+        Map<String, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            for (String term : trigrams.getOrDefault(gram, Set.of())) {
+                shared.merge(term, 1, Integer::sum);
+            }
+        }
+
+        Map<String, Double> out = new HashMap<>();
+        shared.forEach((term, count) -> {
+            double similarity = 2.0 * count / (grams.size() + Math.max(term.length() - 2, 1));
+            if (similarity >= MIN_FUZZY_SIMILARITY) out.put(term, similarity);
+        });
+        return out;
+    }
+
+    private double score(int id, List<TokenMatcher> matchers) {
+        double total = 0;
+        for (TokenMatcher matcher : matchers) {
+            double best = matcher.score(id);
+            if (best == 0) return 0;
+            total += best;
+        }
+        return total;
+    }
+
+    private void load(List<Artifact> artifacts) {
+        byPath.clear();
+        slots.clear();
+        terms.clear();
+        trigrams.clear();
+        canonical.clear();
+        versions.clear();
+        coordinates.clear();
+        for (Artifact artifact : artifacts) {
+            put(artifact);
+        }
+    }
+
+    private void put(Artifact artifact) {
+        artifact = new Artifact(
+                intern(artifact.repo),
+                intern(artifact.groupId),
+                intern(artifact.artifactId),
+                intern(artifact.version),
+                artifact.name,
+                artifact.path,
+                artifact.size
+        );
+        artifact.id = slots.size();
+        slots.add(artifact);
+        byPath.put(artifact.path, artifact);
+        String artifactPath = artifactPath(artifact);
+        versions.computeIfAbsent(artifactPath, a -> new HashMap<>())
+                .merge(artifact.version, 1, Integer::sum);
+        coordinates.computeIfAbsent(coordinate(artifact), c -> new HashSet<>()).add(artifactPath);
+
+        String fileTerm = artifact.name.toLowerCase(Locale.ROOT);
+        for (String term : artifact.terms) {
+            Postings postings = terms.computeIfAbsent(intern(term), t -> new Postings());
+            // File names repeat artifactId and version, so they are left out of the fuzzy index.
+            if (postings.size == 0 && !term.equals(fileTerm)) {
+                for (String gram : grams(term)) {
+                    trigrams.computeIfAbsent(gram, g -> new HashSet<>()).add(intern(term));
+                }
+            }
+            postings.add(artifact.id);
+        }
+    }
+
+    private void delete(Artifact artifact) {
+        byPath.remove(artifact.path);
+        slots.set(artifact.id, null);
+
+        String artifactPath = artifactPath(artifact);
+        Map<String, Integer> known = versions.get(artifactPath);
+        if (known != null) {
+            known.computeIfPresent(artifact.version, (v, n) -> n > 1 ? n - 1 : null);
+            if (known.isEmpty()) {
+                versions.remove(artifactPath);
+                Set<String> directories = coordinates.get(coordinate(artifact));
+                directories.remove(artifactPath);
+                if (directories.isEmpty()) coordinates.remove(coordinate(artifact));
+            }
+        }
+
+        for (String term : artifact.terms) {
+            Postings postings = terms.get(term);
+            if (postings == null) continue;
+
+            postings.remove(artifact.id);
+            if (postings.size == 0) {
+                terms.remove(term);
+                for (String gram : grams(term)) {
+                    Set<String> owners = trigrams.get(gram);
+                    if (owners == null) continue;
+                    owners.remove(term);
+                    if (owners.isEmpty()) trigrams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private String intern(String value) {
+        return canonical.computeIfAbsent(value, v -> v);
+    }
+
+    private static Artifact parse(Path relative, long size) {
+        int count = relative.getNameCount();
+        // repo / group... / artifactId / version / file
+        if (count < 5) return null;
+
+        String name = relative.getFileName().toString();
+        if (name.startsWith("maven-metadata") || PartFiles.isPartFile(name)) return null;
+        for (String suffix : IGNORED_SUFFIXES) {
+            if (name.endsWith(suffix)) return null;
+        }
+
+        String repo = relative.getName(0).toString();
+        String version = relative.getName(count - 2).toString();
+        String artifactId = relative.getName(count - 3).toString();
+
+        StringJoiner groupId = new StringJoiner(".");
+        for (int i = 1; i < count - 3; i++) {
+            groupId.add(relative.getName(i).toString());
+        }
+
+        return new Artifact(repo, groupId.toString(), artifactId, version, name, toTreePath(relative), size);
+    }
+
+    private static String coordinate(Artifact artifact) {
+        return artifact.groupId + ':' + artifact.artifactId;
+    }
+
+    private static String artifactPath(Artifact artifact) {
+        int fileSlash = artifact.path.lastIndexOf('/');
+        return artifact.path.substring(0, artifact.path.lastIndexOf('/', fileSlash - 1));
+    }
+
+    private static String toTreePath(Path relative) {
+        StringBuilder out = new StringBuilder();
+        for (Path segment : relative) {
+            out.append('/').append(segment);
+        }
+        return out.toString();
+    }
+
+    private static Set<String> grams(String term) {
+        if (term.length() < 3) return Set.of();
+
+        Set<String> out = new HashSet<>();
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            out.add(term.substring(i, i + 3));
+        }
+        return out;
+    }
+
+    private static long stringBytes(String s) {
+        return 40 + s.length();
+    }
+
+    /**
+     * Sorted, growable list of artifact ids. Ids are handed out in increasing order,
+     * so inserts are appends and membership checks are binary searches.
+     */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size;
+
+        private void add(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) return;
+            pos = -pos - 1;
+
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        private void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) return;
+
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /**
+     * Matches a single query token against artifact terms, either by prefix
+     * or, when no indexed term has the token as prefix, by trigram similarity.
+     */
+    private final class TokenMatcher {
+        private final String token;
+        private final Map<String, Double> fuzzy;
+        private final Postings[] lookupPostings;
+        private final double[] lookupScores;
+        private final long postings;
+        private int[] union;
+        private int unionSize;
+
+        private TokenMatcher(String token, Map<String, Double> fuzzy) {
+            this.token = token;
+            this.fuzzy = fuzzy;
+
+            List<String> matched = new ArrayList<>();
+            for (String term : terms()) {
+                if (matched.size() == MAX_LOOKUP_TERMS) {
+                    matched = null;
+                    break;
+                }
+                matched.add(term);
+            }
+
+            if (matched == null) {
+                this.lookupPostings = null;
+                this.lookupScores = null;
+                this.postings = Long.MAX_VALUE;
+                return;
+            }
+
+            this.lookupPostings = new Postings[matched.size()];
+            this.lookupScores = new double[matched.size()];
+            long total = 0;
+            for (int i = 0; i < matched.size(); i++) {
+                lookupPostings[i] = terms.get(matched.get(i));
+                lookupScores[i] = match(matched.get(i));
+                total += lookupPostings[i].size;
+            }
+            this.postings = total;
+        }
+
+        /**
+         * Merges the posting lists of all matching terms so that rejecting an id
+         * costs a single binary search instead of one per term.
+         */
+        private void prepareUnion() {
+            if (lookupPostings == null || postings > MAX_UNION_POSTINGS) return;
+
+            int[] merged = new int[0];
+            int mergedSize = 0;
+            for (Postings p : lookupPostings) {
+                int[] out = new int[mergedSize + p.size];
+                int i = 0, j = 0, k = 0;
+                while (i < mergedSize && j < p.size) {
+                    out[k++] = merged[i] <= p.ids[j] ? merged[i++] : p.ids[j++];
+                }
+                while (i < mergedSize) out[k++] = merged[i++];
+                while (j < p.size) out[k++] = p.ids[j++];
+                merged = out;
+                mergedSize = k;
+            }
+            this.union = merged;
+            this.unionSize = mergedSize;
+        }
+
+        private Iterable<String> terms() {
+            if (fuzzy != null) {
+                return fuzzy.entrySet().stream()
+                        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                        .map(Map.Entry::getKey)
+                        .toList();
+            }
+            return terms.subMap(token, true, token + Character.MAX_VALUE, false).keySet();
+        }
+
+        private double score(int id) {
+            if (union != null && Arrays.binarySearch(union, 0, unionSize, id) < 0) return 0;
+
+            double best = 0;
+
+            if (lookupPostings != null) {
+                // Few matching terms: probe their posting lists instead of comparing strings.
+                for (int i = 0; i < lookupPostings.length; i++) {
+                    if (lookupScores[i] > best && lookupPostings[i].contains(id)) best = lookupScores[i];
+                }
+            } else {
+                for (String term : slots.get(id).terms) {
+                    best = Math.max(best, match(term));
+                }
+            }
+            return best;
+        }
+
+        private double match(String term) {
+            if (fuzzy != null) return fuzzy.getOrDefault(term, 0.0);
+            if (term.equals(token)) return 3;
+            return term.startsWith(token) ? 2 : 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package dev.d4nilpzz.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A version string ordered the way Maven orders versions: numbers numerically, and the common
+ * qualifiers as {@code alpha < beta < milestone < rc < snapshot < release < sp}, so that
+ * {@code 1.10 > 1.9}, {@code 1.0-rc1 < 1.0} and {@code 1.0.1 > 1.0-alpha}. Unknown qualifiers sort
+ * after {@code sp}, alphabetically. Trailing zeros and release qualifiers are ignored, so
+ * {@code 1.0}, {@code 1} and {@code 1.0.0-final} are equal.
+ */
+public final class MavenVersion implements Comparable<MavenVersion> {
+    private static final int RELEASE = 5;
+
+    public final String value;
+    private final Object[] items;
+
+    private MavenVersion(String value, Object[] items) {
+        this.value = value;
+        this.items = items;
+    }
+
+    public static MavenVersion parse(String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        List<Object> items = new ArrayList<>();
+
+        int start = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean end = i == lower.length();
+            char c = end ? 0 : lower.charAt(i);
+            boolean separator = end || c == '.' || c == '-' || c == '_' || c == '+';
+            // A switch between digits and letters also splits an item, e.g. "rc1" is "rc", 1.
+            boolean transition = !separator && i > start
+                    && Character.isDigit(c) != Character.isDigit(lower.charAt(i - 1));
+
+            if (separator || transition) {
+                if (i > start) items.add(item(lower.substring(start, i), transition && Character.isDigit(c)));
+                start = separator ? i + 1 : i;
+            }
+        }
+
+        while (!items.isEmpty() && isNull(items.get(items.size() - 1))) {
+            items.remove(items.size() - 1);
+        }
+        return new MavenVersion(value, items.toArray());
+    }
+
+    public boolean isSnapshot() {
+        return value.endsWith("-SNAPSHOT") || value.equals("SNAPSHOT");
+    }
+
+    @Override
+    public int compareTo(MavenVersion other) {
+        int length = Math.max(items.length, other.items.length);
+        for (int i = 0; i < length; i++) {
+            int result = compare(i < items.length ? items[i] : null, i < other.items.length ? other.items[i] : null);
+            if (result != 0) return result;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    private static Object item(String token, boolean followedByNumber) {
+        if (Character.isDigit(token.charAt(0))) {
+            // Longer than a long is still ordered correctly by comparing the digits.
+            String digits = token.replaceFirst("^0+(?=.)", "");
+            return digits.length() < 19 ? (Object) Long.parseLong(digits) : new BigNumber(digits);
+        }
+
+        // "a1", "b2" and "m3" are shorthands, a lone "a" is just a qualifier.
+        if (followedByNumber) {
+            switch (token) {
+                case "a": return new Qualifier("alpha");
+                case "b": return new Qualifier("beta");
+                case "m": return new Qualifier("milestone");
+            }
+        }
+        return new Qualifier(token);
+    }
+
+    private static boolean isNull(Object item) {
+        return item instanceof Long number ? number == 0 : item instanceof Qualifier q && q.rank == RELEASE;
+    }
+
+    private static int compare(Object left, Object right) {
+        if (left == null && right == null) return 0;
+        if (left == null) return -compare(right, null);
+
+        if (left instanceof Qualifier qualifier) {
+            if (right == null) return Integer.compare(qualifier.rank, RELEASE);
+            // A number always wins over a qualifier: 1.0.1 > 1.0-alpha.
+            if (!(right instanceof Qualifier other)) return -1;
+            int result = Integer.compare(qualifier.rank, other.rank);
+            return result != 0 || qualifier.rank != Qualifier.UNKNOWN ? result : qualifier.name.compareTo(other.name);
+        }
+
+        if (right == null) return isNull(left) ? 0 : 1;
+        if (right instanceof Qualifier) return 1;
+        return compareNumbers(left, right);
+    }
+
+    private static int compareNumbers(Object left, Object right) {
+        String a = left.toString();
+        String b = right.toString();
+        return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+    }
+
+    private record BigNumber(String digits) {
+        @Override
+        public String toString() {
+            return digits;
+        }
+    }
+
+    private record Qualifier(String name, int rank) {
+        static final int UNKNOWN = 7;
+
+        Qualifier(String name) {
+            this(name, rank(name));
+        }
+
+        private static int rank(String name) {
+            return switch (name) {
+                case "alpha" -> 0;
+                case "beta" -> 1;
+                case "milestone" -> 2;
+                case "rc", "cr" -> 3;
+                case "snapshot" -> 4;
+                case "ga", "final", "release" -> RELEASE;
+                case "sp" -> 6;
+                default -> UNKNOWN;
+            };
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.d4nilpzz.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Maven version range such as {@code [1.0,2.0)}, {@code [1.5,)}, {@code (,1.0]}, {@code [1.2]}
+ * or a union of them, {@code [1.0,1.2),[1.5,)}. A bare version, {@code 1.2}, only matches itself.
+ */
+public final class VersionRange {
+    private final List<Bounds> bounds;
+
+    private record Bounds(MavenVersion lower, boolean lowerInclusive, MavenVersion upper, boolean upperInclusive) {
+        boolean contains(MavenVersion version) {
+            if (lower != null) {
+                int result = version.compareTo(lower);
+                if (result < 0 || result == 0 && !lowerInclusive) return false;
+            }
+            if (upper != null) {
+                int result = version.compareTo(upper);
+                if (result > 0 || result == 0 && !upperInclusive) return false;
+            }
+            return true;
+        }
+    }
+
+    private VersionRange(List<Bounds> bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * @param spec range specification
+     * @return the parsed range
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static VersionRange parse(String spec) {
+        String value = spec.trim();
+        if (value.isEmpty()) throw new IllegalArgumentException("Empty version range");
+
+        char first = value.charAt(0);
+        if (first != '[' && first != '(') {
+            if (value.indexOf(',') >= 0 || value.indexOf(']') >= 0 || value.indexOf(')') >= 0) {
+                throw new IllegalArgumentException("Invalid version range: " + spec);
+            }
+            MavenVersion version = MavenVersion.parse(value);
+            return new VersionRange(List.of(new Bounds(version, true, version, true)));
+        }
+
+        List<Bounds> bounds = new ArrayList<>();
+        int i = 0;
+        while (i < value.length()) {
+            char open = value.charAt(i);
+            if (open != '[' && open != '(') throw new IllegalArgumentException("Invalid version range: " + spec);
+
+            int close = i + 1;
+            while (close < value.length() && value.charAt(close) != ']' && value.charAt(close) != ')') close++;
+            if (close == value.length()) throw new IllegalArgumentException("Unclosed version range: " + spec);
+
+            bounds.add(bounds(value.substring(i + 1, close).trim(), open == '[', value.charAt(close) == ']', spec));
+
+            i = close + 1;
+            while (i < value.length() && Character.isWhitespace(value.charAt(i))) i++;
+            if (i < value.length()) {
+                if (value.charAt(i) != ',') throw new IllegalArgumentException("Invalid version range: " + spec);
+                i++;
+                while (i < value.length() && Character.isWhitespace(value.charAt(i))) i++;
+                if (i == value.length()) throw new IllegalArgumentException("Invalid version range: " + spec);
+            }
+        }
+        return new VersionRange(List.copyOf(bounds));
+    }
+
+    public boolean contains(MavenVersion version) {
+        for (Bounds b : bounds) {
+            if (b.contains(version)) return true;
+        }
+        return false;
+    }
+
+    private static Bounds bounds(String content, boolean lowerInclusive, boolean upperInclusive, String spec) {
+        int comma = content.indexOf(',');
+        if (comma < 0) {
+            // [1.0] is an exact version, (1.0) matches nothing and is rejected like Maven does.
+            if (content.isEmpty() || !lowerInclusive || !upperInclusive) {
+                throw new IllegalArgumentException("Invalid version range: " + spec);
+            }
+            MavenVersion version = MavenVersion.parse(content);
+            return new Bounds(version, true, version, true);
+        }
+        if (content.indexOf(',', comma + 1) >= 0) throw new IllegalArgumentException("Invalid version range: " + spec);
+
+        String lower = content.substring(0, comma).trim();
+        String upper = content.substring(comma + 1).trim();
+        MavenVersion from = lower.isEmpty() ? null : MavenVersion.parse(lower);
+        MavenVersion to = upper.isEmpty() ? null : MavenVersion.parse(upper);
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException("Lower bound is above upper bound: " + spec);
+        }
+        return new Bounds(from, lowerInclusive, to, upperInclusive);
+    }
+}
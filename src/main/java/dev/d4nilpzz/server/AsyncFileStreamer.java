@@ -0,0 +1,304 @@
+package dev.d4nilpzz.server;
+
+import dev.d4nilpzz.storage.MappedFileCache;
+import io.javalin.http.Context;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncFileStreamer sends large files without holding a request thread for the whole download.
+ * <p>
+ * The file is read with an {@link AsynchronousFileChannel} into one buffer per download and written
+ * with non-blocking servlet I/O. The next chunk is only read once the previous one has left the
+ * output buffer, so a slow client costs one buffer and no thread while it catches up. Files kept
+ * mapped by {@link MappedFileCache} are written the same way, straight from the mapping.
+ * <p>
+ * Downloads throttled by the {@link BandwidthLimiter} book every chunk before sending it. A chunk
+ * that has to wait leaves the download idle until the limiter's scheduler resumes it.
+ * <p>
+ * Configured in {@code repossify.properties}:
+ * <ul>
+ *     <li>{@code downloads.async} - enables asynchronous streaming (default true)</li>
+ *     <li>{@code downloads.async_min_kb} - smaller files are sent the blocking way (default 1024)</li>
+ *     <li>{@code downloads.async_buffer_kb} - buffer size per download (default 64)</li>
+ *     <li>{@code downloads.async_io_threads} - threads reading files for all downloads (default 4)</li>
+ * </ul>
+ */
+public class AsyncFileStreamer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncFileStreamer.class);
+    // Mapped files cost no buffer, so they are handed to Jetty in larger pieces.
+    private static final int MAPPED_CHUNK_BYTES = 1024 * 1024;
+
+    private final boolean enabled;
+    private final long minBytes;
+    private final int bufferBytes;
+    private final ExecutorService ioExecutor;
+
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+
+    /**
+     * @param enabled     whether downloads may be streamed asynchronously
+     * @param minBytes    size from which a file is streamed asynchronously
+     * @param bufferBytes buffer size per download
+     * @param ioThreads   threads running the file reads of all downloads
+     */
+    public AsyncFileStreamer(boolean enabled, long minBytes, int bufferBytes, int ioThreads) {
+        this.enabled = enabled;
+        this.minBytes = Math.max(0, minBytes);
+        this.bufferBytes = Math.max(4 * 1024, bufferBytes);
+        // Without an executor the JDK runs file reads on an unbounded pool, one thread per waiting read.
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, ioThreads),
+                Thread.ofPlatform().name("async-file-io-", 0).daemon().factory());
+    }
+
+    /**
+     * @param size file size in bytes
+     * @return true if a file of this size should be sent with {@link #send}
+     */
+    public boolean accepts(long size) {
+        return enabled && size >= minBytes;
+    }
+
+    /**
+     * Sends the file as the response body once the handler returns. Status and headers must be set before.
+     *
+     * @param ctx      request context
+     * @param target   file to send
+     * @param size     file size, sent as {@code Content-Length}
+     * @param throttle bandwidth buckets of the download, null if it is not throttled
+     * @throws IOException if the file cannot be opened
+     */
+    public void send(Context ctx, Path target, long size, BandwidthLimiter.Throttle throttle) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(target, Set.of(StandardOpenOption.READ), ioExecutor);
+        start(ctx, channel, null, size, throttle);
+    }
+
+    /**
+     * Sends a memory-mapped file as the response body and releases the mapping afterwards.
+     * The mapped pages are handed to Jetty as they are, without copying them to the heap.
+     * When asynchronous downloads are disabled the request thread writes the file itself.
+     *
+     * @param ctx      request context
+     * @param mapping  retained mapping, released by this method in every case
+     * @param throttle bandwidth buckets of the download, null if it is not throttled
+     */
+    public void send(Context ctx, MappedFileCache.Mapping mapping, BandwidthLimiter.Throttle throttle) throws IOException {
+        if (enabled) {
+            start(ctx, null, mapping, mapping.size, throttle);
+            return;
+        }
+
+        try {
+            ctx.res().setContentLengthLong(mapping.size);
+            ServletOutputStream out = ctx.res().getOutputStream();
+            for (long position = 0; position < mapping.size; ) {
+                ByteBuffer slice = mapping.slice(position, throttle == null ? MAPPED_CHUNK_BYTES : bufferBytes);
+                if (throttle != null) LockSupport.parkNanos(throttle.book(slice.remaining()));
+                position += slice.remaining();
+                write(out, slice);
+            }
+        } finally {
+            mapping.release();
+        }
+    }
+
+    private void start(Context ctx, AsynchronousFileChannel channel, MappedFileCache.Mapping mapping, long size,
+                       BandwidthLimiter.Throttle throttle) {
+        ctx.res().setContentLengthLong(size);
+        ctx.future(() -> {
+            Transfer transfer = new Transfer(channel, mapping, size, throttle);
+            try {
+                transfer.out = ctx.res().getOutputStream();
+                transfer.out.setWriteListener(transfer);
+            } catch (Exception e) {
+                transfer.finish(e);
+            }
+            return transfer.done;
+        });
+    }
+
+    private static void write(ServletOutputStream out, ByteBuffer slice) throws IOException {
+        if (out instanceof HttpOutput jetty) {
+            jetty.write(slice);
+        } else {
+            byte[] copy = new byte[slice.remaining()];
+            slice.get(copy);
+            out.write(copy);
+        }
+    }
+
+    public long active() {
+        return active.get();
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    public long aborted() {
+        return aborted.get();
+    }
+
+    /**
+     * One download. Either a file read, a wait for the client or a wait for bandwidth is outstanding at
+     * any time, never two of them, and every step runs under the transfer's lock so the callbacks
+     * cannot interleave.
+     */
+    private final class Transfer implements WriteListener, CompletionHandler<Integer, Void> {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AsynchronousFileChannel channel;
+        private final MappedFileCache.Mapping mapping;
+        private final ByteBuffer buffer;
+        private final long size;
+        private final BandwidthLimiter.Throttle throttle;
+        private final int chunkBytes;
+        private ServletOutputStream out;
+
+        private long position;
+        private boolean reading;
+        private boolean pending;
+        private boolean waiting;
+        private boolean booked;
+
+        private Transfer(AsynchronousFileChannel channel, MappedFileCache.Mapping mapping, long size,
+                         BandwidthLimiter.Throttle throttle) {
+            this.channel = channel;
+            this.mapping = mapping;
+            this.size = size;
+            this.throttle = throttle;
+            // Throttled mappings go out in buffer-sized chunks too, so their pace stays even.
+            this.chunkBytes = mapping != null && throttle == null ? MAPPED_CHUNK_BYTES : bufferBytes;
+            this.buffer = channel == null ? null : ByteBuffer.allocate((int) Math.min(bufferBytes, Math.max(1, size)));
+            active.incrementAndGet();
+        }
+
+        @Override
+        public void onWritePossible() {
+            step();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finish(t);
+        }
+
+        @Override
+        public void completed(Integer read, Void attachment) {
+            synchronized (this) {
+                reading = false;
+                if (read >= 0) {
+                    position += read;
+                    buffer.flip();
+                    pending = true;
+                }
+            }
+
+            if (read < 0) finish(new IOException("File shrank while it was sent"));
+            else step();
+        }
+
+        @Override
+        public void failed(Throwable t, Void attachment) {
+            finish(t);
+        }
+
+        private void resume() {
+            synchronized (this) {
+                waiting = false;
+            }
+            step();
+        }
+
+        private void step() {
+            boolean end = false;
+            Throwable error = null;
+
+            synchronized (this) {
+                try {
+                    // isReady() returning false guarantees a later onWritePossible(), which resumes here.
+                    // Jetty may still hold the written array until then, so the next read has to wait too.
+                    while (!finished.get() && !reading && !waiting && out.isReady()) {
+                        if (pending) {
+                            pending = false;
+                            out.write(buffer.array(), 0, buffer.limit());
+                            continue;
+                        }
+                        if (position >= size) {
+                            end = true;
+                            break;
+                        }
+
+                        int chunk = (int) Math.min(chunkBytes, size - position);
+                        if (throttle != null && !booked) {
+                            booked = true;
+                            long wait = throttle.book(chunk);
+                            if (wait > 0) {
+                                waiting = true;
+                                throttle.after(wait, this::resume);
+                                break;
+                            }
+                        }
+                        booked = false;
+
+                        if (mapping != null) {
+                            ByteBuffer slice = mapping.slice(position, chunk);
+                            position += slice.remaining();
+                            write(out, slice);
+                        } else {
+                            buffer.clear();
+                            buffer.limit(chunk);
+                            reading = true;
+                            channel.read(buffer, position, null, this);
+                        }
+                    }
+                } catch (Exception e) {
+                    end = true;
+                    error = e;
+                }
+            }
+
+            // Completing hands the response back to Javalin, which must not happen under the lock.
+            if (end) finish(error);
+        }
+
+        private void finish(Throwable error) {
+            if (!finished.compareAndSet(false, true)) return;
+            active.decrementAndGet();
+
+            if (mapping != null) mapping.release();
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+
+            if (error == null) {
+                completed.incrementAndGet();
+            } else {
+                // Mostly clients going away mid-download; the connection is closed either way.
+                aborted.incrementAndGet();
+                LOGGER.debug("Download of {} bytes aborted: {}", size, error.toString());
+            }
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package dev.d4nilpzz.server;
+
+import dev.d4nilpzz.RepossifyConfig;
+import dev.d4nilpzz.auth.AccessToken;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the download bandwidth per repository and per token, so a few clients pulling large jars
+ * cannot take the whole uplink from everyone else.
+ * <p>
+ * Every capped repository or token has a bucket. Before each chunk of a download is written, the
+ * chunk is booked on the buckets of its repository and token: a bucket keeps the time at which
+ * the bytes booked so far will have drained at its rate, and the chunk waits for as long as that
+ * time is more than the burst ahead of now. Waiting downloads hold no thread; the
+ * {@link AsyncFileStreamer} resumes them from the limiter's shared scheduler. Downloads sharing a
+ * bucket book their chunks in turn and so split its bandwidth evenly.
+ * <p>
+ * Files below {@code bandwidth.min_kb} are never throttled, so metadata, POMs and checksums stay
+ * fast while the jars of a capped repository queue up.
+ * <p>
+ * Configured in {@code repossify.properties}, in KB per second with 0 for no cap:
+ * <ul>
+ *     <li>{@code bandwidth.repository.<name>} - cap of one repository</li>
+ *     <li>{@code bandwidth.token.<name>} - cap of one token</li>
+ *     <li>{@code bandwidth.default.repository} - cap of repositories without their own (default 0)</li>
+ *     <li>{@code bandwidth.default.token} - cap of tokens without their own (default 0)</li>
+ *     <li>{@code bandwidth.min_kb} - smaller files are not throttled (default 512)</li>
+ *     <li>{@code bandwidth.burst_kb} - bytes a bucket may send at once after being idle (default 256)</li>
+ * </ul>
+ */
+public class BandwidthLimiter {
+    private static final String DEFAULT = "*";
+
+    public enum Scope {
+        REPOSITORY, TOKEN
+    }
+
+    /**
+     * Throughput of one bucket.
+     *
+     * @param limitBytesPerSecond configured cap
+     * @param bytesPerSecond      bytes booked over the last second
+     * @param bytesTotal          bytes booked since the bucket was created
+     */
+    public record BucketStats(Scope scope, String name, long limitBytesPerSecond, double bytesPerSecond, long bytesTotal) {
+    }
+
+    private final long minBytes;
+    private final long burstBytes;
+    // Caps in bytes per second by scope and name, DEFAULT for the fallback of a scope.
+    private final Map<String, Long> caps = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder delayed = new LongAdder();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("bandwidth-scheduler").daemon().factory());
+
+    /**
+     * @param minBytes   size from which downloads are throttled
+     * @param burstBytes bytes a bucket may send at once after being idle
+     */
+    public BandwidthLimiter(long minBytes, long burstBytes) {
+        this.minBytes = Math.max(0, minBytes);
+        this.burstBytes = Math.max(4 * 1024, burstBytes);
+        scheduler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return a limiter with the caps of {@code repossify.properties}
+     */
+    public static BandwidthLimiter from(RepossifyConfig config) {
+        BandwidthLimiter limiter = new BandwidthLimiter(
+                config.getLong("bandwidth.min_kb", 512) * 1024,
+                config.getLong("bandwidth.burst_kb", 256) * 1024);
+        for (Scope scope : Scope.values()) {
+            limiter.setCap(scope, null, config.getLong("bandwidth.default." + name(scope), 0) * 1024);
+
+            String prefix = "bandwidth." + name(scope) + ".";
+            for (String key : config.keys(prefix)) {
+                limiter.setCap(scope, key.substring(prefix.length()), config.getLong(key, 0) * 1024);
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Changes a cap; downloads in progress follow it from their next chunk.
+     *
+     * @param name           repository or token name, null for the default of the scope
+     * @param bytesPerSecond new cap, 0 to remove it
+     */
+    public void setCap(Scope scope, String name, long bytesPerSecond) {
+        String key = key(scope, name == null ? DEFAULT : name);
+        if (bytesPerSecond > 0) caps.put(key, bytesPerSecond);
+        else caps.remove(key);
+
+        // Buckets pick up their cap again when next used.
+        buckets.values().forEach(bucket -> {
+            if (bucket.scope == scope && (name == null || bucket.name.equals(name))) bucket.limit = 0;
+        });
+    }
+
+    /**
+     * @param name repository or token name, null for the default of the scope
+     * @return cap in bytes per second, 0 if there is none
+     */
+    public long cap(Scope scope, String name) {
+        Long cap = caps.get(key(scope, name == null ? DEFAULT : name));
+        return cap == null ? 0 : cap;
+    }
+
+    /**
+     * @param repository repository the file belongs to
+     * @param token      token of the request, null if anonymous
+     * @param size       file size in bytes
+     * @return the buckets to book the download's chunks on, null if it is not throttled
+     */
+    public Throttle throttle(String repository, AccessToken token, long size) {
+        if (size < minBytes || caps.isEmpty()) return null;
+
+        Bucket byRepository = bucket(Scope.REPOSITORY, repository);
+        Bucket byToken = token == null ? null : bucket(Scope.TOKEN, token.name);
+        if (byRepository == null && byToken == null) return null;
+        return new Throttle(byRepository, byToken);
+    }
+
+    /**
+     * @return chunks that had to wait since start
+     */
+    public long delayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return throughput of every bucket, busiest first
+     */
+    public List<BucketStats> buckets() {
+        List<BucketStats> stats = new ArrayList<>();
+        for (Bucket bucket : buckets.values()) {
+            stats.add(new BucketStats(bucket.scope, bucket.name, cap(bucket), bucket.rate, bucket.bytes.sum()));
+        }
+        stats.sort(Comparator.comparingDouble(BucketStats::bytesPerSecond).reversed());
+        return stats;
+    }
+
+    private Bucket bucket(Scope scope, String name) {
+        String key = key(scope, name);
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) return bucket.limit(this) > 0 ? bucket : null;
+        if (!caps.containsKey(key) && !caps.containsKey(key(scope, DEFAULT))) return null;
+
+        bucket = buckets.computeIfAbsent(key, k -> new Bucket(scope, name));
+        return bucket.limit(this) > 0 ? bucket : null;
+    }
+
+    private long cap(Bucket bucket) {
+        Long cap = caps.get(key(bucket.scope, bucket.name));
+        if (cap == null) cap = caps.get(key(bucket.scope, DEFAULT));
+        return cap == null ? 0 : cap;
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        // Buckets of removed caps are dropped once they have been idle for a second.
+        buckets.values().removeIf(bucket -> {
+            long bytes = bucket.bytes.sum();
+            double seconds = Math.max(1e-3, (now - bucket.sampledNanos) / 1e9);
+            bucket.rate = (bytes - bucket.sampledBytes) / seconds;
+            bucket.sampledBytes = bytes;
+            bucket.sampledNanos = now;
+            return bucket.rate == 0 && cap(bucket) == 0;
+        });
+    }
+
+    private static String key(Scope scope, String name) {
+        return scope.ordinal() + "/" + name;
+    }
+
+    public static String name(Scope scope) {
+        return scope.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The buckets of one download.
+     */
+    public final class Throttle {
+        private final Bucket byRepository;
+        private final Bucket byToken;
+
+        private Throttle(Bucket byRepository, Bucket byToken) {
+            this.byRepository = byRepository;
+            this.byToken = byToken;
+        }
+
+        /**
+         * Books a chunk on the buckets. The chunk must be sent, after the returned delay.
+         *
+         * @return nanoseconds to wait before sending the chunk, 0 to send it right away
+         */
+        public long book(int bytes) {
+            long now = System.nanoTime();
+            long wait = 0;
+            if (byRepository != null) wait = byRepository.book(BandwidthLimiter.this, bytes, now);
+            if (byToken != null) wait = Math.max(wait, byToken.book(BandwidthLimiter.this, bytes, now));
+            if (wait > 0) delayed.increment();
+            return wait;
+        }
+
+        /**
+         * Runs a task once a booked chunk may be sent, on the limiter's scheduler.
+         */
+        public void after(long delayNanos, Runnable task) {
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static final class Bucket {
+        final Scope scope;
+        final String name;
+        final AtomicLong drained = new AtomicLong(System.nanoTime());
+        final LongAdder bytes = new LongAdder();
+        // Cached cap, 0 when it has to be looked up again.
+        volatile long limit;
+
+        // Written by the scheduler only.
+        volatile double rate;
+        long sampledBytes;
+        long sampledNanos = System.nanoTime();
+
+        Bucket(Scope scope, String name) {
+            this.scope = scope;
+            this.name = name;
+        }
+
+        long limit(BandwidthLimiter limiter) {
+            long current = limit;
+            if (current == 0) {
+                current = limiter.cap(this);
+                limit = current;
+            }
+            return current;
+        }
+
+        long book(BandwidthLimiter limiter, int size, long now) {
+            bytes.add(size);
+            long perSecond = limit(limiter);
+            if (perSecond <= 0) return 0;
+
+            long cost = (long) (size * 1e9 / perSecond);
+            long allowance = (long) (limiter.burstBytes * 1e9 / perSecond);
+            while (true) {
+                long current = drained.get();
+                long next = (current - now > 0 ? current : now) + cost;
+                if (drained.compareAndSet(current, next)) return Math.max(0, next - now - allowance);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package dev.d4nilpzz.server;
+
+import io.javalin.http.Context;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Resolves the address of the client behind a request. Behind a reverse proxy every request
+ * connects from the proxy, so for requests from a trusted proxy the client is taken from the
+ * {@code X-Forwarded-For} header the proxy appends to, and the proxy's own address is never used.
+ * Requests from anywhere else are judged by the address they connect from, and their header is
+ * ignored, since any client can send one.
+ * <p>
+ * Trusted proxies are listed in {@code server.trusted_proxies} as literal IP addresses.
+ */
+public class ClientAddress {
+    private final Set<InetAddress> trustedProxies = new HashSet<>();
+
+    /**
+     * @param trustedProxies IP addresses of reverse proxies whose {@code X-Forwarded-For} is believed
+     * @throws IllegalArgumentException if a trusted address is not a literal IP address
+     */
+    public ClientAddress(Set<String> trustedProxies) {
+        for (String address : trustedProxies) {
+            InetAddress proxy = literal(address);
+            if (proxy == null) throw new IllegalArgumentException("Not an IP address: " + address);
+            this.trustedProxies.add(proxy);
+        }
+    }
+
+    /**
+     * @return the address of the client, or null if it came through a trusted proxy that did not tell
+     */
+    public InetAddress resolve(Context ctx) {
+        InetAddress address = literal(ctx.req().getRemoteAddr());
+        if (address == null || !trustedProxies.contains(address)) return address;
+
+        // Proxies append the address they were connected from, so the first entry from the right
+        // that is not a trusted proxy is the client; anything left of it may be forged.
+        String forwarded = ctx.header("X-Forwarded-For");
+        if (forwarded == null) return null;
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            InetAddress hop = literal(hops[i].trim());
+            if (hop == null) return null;
+            if (!trustedProxies.contains(hop)) return hop;
+        }
+        return null;
+    }
+
+    /**
+     * @return the client's address as text, or the address the request connected from if the
+     * client is unknown
+     */
+    public String of(Context ctx) {
+        if (trustedProxies.isEmpty()) return ctx.req().getRemoteAddr();
+        InetAddress client = resolve(ctx);
+        return client != null ? client.getHostAddress() : ctx.req().getRemoteAddr();
+    }
+
+    private static InetAddress literal(String address) {
+        if (address.startsWith("[") && address.endsWith("]")) address = address.substring(1, address.length() - 1);
+        // Only literal IPs are accepted, so nothing is ever looked up by name.
+        boolean ip = address.indexOf(':') >= 0 || address.chars().allMatch(c -> c == '.' || (c >= '0' && c <= '9'));
+        if (address.isEmpty() || !ip) return null;
+        try {
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dev.d4nilpzz.server;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of requests handled at the same time. Requests over the limit wait briefly
+ * for a slot and are answered with {@code 503} if none frees up.
+ */
+public class ConcurrencyLimitHandler extends HandlerWrapper {
+    private static final long QUEUE_TIMEOUT_MS = 2_000;
+
+    private final Semaphore permits;
+
+    /**
+     * @param maxConcurrentRequests maximum number of requests in progress
+     */
+    public ConcurrencyLimitHandler(int maxConcurrentRequests) {
+        this.permits = new Semaphore(maxConcurrentRequests);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            baseRequest.setHandled(true);
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent requests");
+            return;
+        }
+
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
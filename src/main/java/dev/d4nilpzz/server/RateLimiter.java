@@ -0,0 +1,220 @@
+package dev.d4nilpzz.server;
+
+import dev.d4nilpzz.RepossifyConfig;
+import dev.d4nilpzz.auth.AccessToken;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.TooManyRequestsResponse;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the request rate per client address and per token, separately for each class of route,
+ * so one misbehaving client cannot flood downloads or uploads for everyone.
+ * <p>
+ * Every client has a GCRA bucket: a single "theoretical arrival time" advanced by one emission
+ * interval per request with a compare-and-set, without locks. A request is rejected with
+ * {@code 429} and {@code Retry-After} when it would push that time more than the burst ahead of
+ * now. Buckets live in a bounded map; once it is full, idle buckets, which are back to a full
+ * burst and so hold no state worth keeping, are evicted first, then arbitrary ones.
+ * <p>
+ * Limits are read from {@code rate_limit.<class>.<scope>.rate} (requests per second, 0 for no
+ * limit) and {@code rate_limit.<class>.<scope>.burst}, where class is {@code download},
+ * {@code upload} or {@code api} and scope is {@code ip} or {@code token}. They can be changed
+ * while running with {@link #setLimit}.
+ */
+public class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = 60_000_000_000L;
+    private static final String FILE_VIEW_PREFIX = "/api/file/view/";
+
+    public enum RouteClass {
+        DOWNLOAD, UPLOAD, API;
+
+        static RouteClass of(HandlerType method, String path) {
+            if (path.startsWith(FILE_VIEW_PREFIX)) return DOWNLOAD;
+            if (method == HandlerType.POST && path.equals("/api/file/upload")) return UPLOAD;
+            return API;
+        }
+    }
+
+    public enum Scope {
+        IP, TOKEN
+    }
+
+    /**
+     * @param perSecond sustained requests per second, 0 for no limit
+     * @param burst     requests allowed at once after being idle
+     */
+    public record Limit(double perSecond, int burst) {
+        static final Limit NONE = new Limit(0, 0);
+
+        boolean isUnlimited() {
+            return perSecond <= 0;
+        }
+
+        long emissionNanos() {
+            return (long) (1e9 / perSecond);
+        }
+
+        @Override
+        public String toString() {
+            return isUnlimited() ? "unlimited" : perSecond + "/s, burst " + burst;
+        }
+    }
+
+    private final AtomicReferenceArray<Limit> limits =
+            new AtomicReferenceArray<>(RouteClass.values().length * Scope.values().length);
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final LongAdder rejected = new LongAdder();
+    private final ClientAddress clients;
+
+    /**
+     * @param maxEntries maximum number of buckets kept
+     * @param clients    resolves client addresses behind trusted proxies
+     */
+    public RateLimiter(int maxEntries, ClientAddress clients) {
+        this.maxEntries = Math.max(16, maxEntries);
+        this.clients = clients;
+        for (int i = 0; i < limits.length(); i++) limits.set(i, Limit.NONE);
+    }
+
+    /**
+     * @return a limiter with the limits of {@code repossify.properties}
+     */
+    public static RateLimiter from(RepossifyConfig config, ClientAddress clients) {
+        RateLimiter limiter = new RateLimiter(config.getInt("rate_limit.max_entries", 100_000), clients);
+        for (RouteClass routeClass : RouteClass.values()) {
+            for (Scope scope : Scope.values()) {
+                String prefix = "rate_limit." + name(routeClass) + "." + name(scope);
+                double rate;
+                try {
+                    rate = Double.parseDouble(config.get(prefix + ".rate", "0").trim());
+                } catch (NumberFormatException e) {
+                    rate = 0;
+                }
+                limiter.setLimit(routeClass, scope, rate, config.getInt(prefix + ".burst", 0));
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Changes a limit; buckets keep their state and follow the new rate from the next request.
+     *
+     * @param perSecond requests per second, 0 for no limit
+     * @param burst     requests allowed at once, at least 1; 0 for the rate of one second
+     */
+    public void setLimit(RouteClass routeClass, Scope scope, double perSecond, int burst) {
+        Limit limit = perSecond <= 0 || Double.isNaN(perSecond)
+                ? Limit.NONE
+                : new Limit(perSecond, burst > 0 ? burst : (int) Math.max(1, Math.ceil(perSecond)));
+        limits.set(index(routeClass, scope), limit);
+    }
+
+    public Limit limit(RouteClass routeClass, Scope scope) {
+        return limits.get(index(routeClass, scope));
+    }
+
+    /**
+     * Before handler applying the limits per client address. Meant to run before authentication,
+     * so a flood is turned away without checking its tokens.
+     *
+     * @throws TooManyRequestsResponse if the address is over its limit
+     */
+    public void checkAddress(Context ctx) {
+        RouteClass routeClass = RouteClass.of(ctx.method(), ctx.path());
+        check(ctx, routeClass, Scope.IP, clients.of(ctx));
+    }
+
+    /**
+     * Before handler applying the limits per token, once authentication has set the token.
+     *
+     * @throws TooManyRequestsResponse if the token is over its limit
+     */
+    public void checkToken(Context ctx) {
+        AccessToken token = ctx.attribute("token");
+        if (token == null) return;
+        RouteClass routeClass = RouteClass.of(ctx.method(), ctx.path());
+        check(ctx, routeClass, Scope.TOKEN, token.name);
+    }
+
+    /**
+     * @return requests rejected since start
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return buckets currently kept
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    private void check(Context ctx, RouteClass routeClass, Scope scope, String client) {
+        Limit limit = limits.get(index(routeClass, scope));
+        if (limit.isUnlimited()) return;
+
+        long retryNanos = acquire(routeClass.ordinal() + "/" + scope.ordinal() + "/" + client, limit);
+        if (retryNanos > 0) {
+            rejected.increment();
+            ctx.header("Retry-After", String.valueOf(Math.max(1, (retryNanos + 999_999_999) / 1_000_000_000)));
+            throw new TooManyRequestsResponse("Rate limit exceeded");
+        }
+    }
+
+    /**
+     * @return 0 if the request is allowed, otherwise nanoseconds until it would be
+     */
+    private long acquire(String key, Limit limit) {
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            long sweep = lastSweep.get();
+            // One thread sweeps at a time; the others go ahead, overshooting the bound by a little at most.
+            if ((buckets.size() >= maxEntries || now - sweep > SWEEP_INTERVAL_NANOS) && lastSweep.compareAndSet(sweep, now)) {
+                evict(now);
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        long emission = limit.emissionNanos();
+        long allowance = emission > Long.MAX_VALUE / 4 / limit.burst() ? Long.MAX_VALUE / 4 : emission * limit.burst();
+        while (true) {
+            long arrival = bucket.get();
+            long next = (arrival - now > 0 ? arrival : now) + emission;
+            long ahead = next - now;
+            if (ahead > allowance) return ahead - allowance;
+            if (bucket.compareAndSet(arrival, next)) return 0;
+        }
+    }
+
+    private void evict(long now) {
+        buckets.entrySet().removeIf(e -> e.getValue().get() - now <= 0);
+
+        // Still full of active clients: make room by dropping arbitrary buckets, which start over.
+        Iterator<String> keys = buckets.keySet().iterator();
+        int target = maxEntries - maxEntries / 10;
+        while (buckets.size() > target && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static int index(RouteClass routeClass, Scope scope) {
+        return routeClass.ordinal() * Scope.values().length + scope.ordinal();
+    }
+
+    public static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,131 @@
+package dev.d4nilpzz.server;
+
+import dev.d4nilpzz.RepossifyArgs;
+import dev.d4nilpzz.RepossifyConfig;
+import io.javalin.config.JavalinConfig;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerSettings holds the Jetty tuning read from {@code repossify.properties}:
+ * <ul>
+ *     <li>{@code server.execution_mode} - {@code platform} runs handlers on a bounded pool of
+ *     platform threads, {@code virtual} on one virtual thread per request, so requests blocked
+ *     on disk, SQLite or a slow client no longer hold on to a pool thread</li>
+ *     <li>{@code server.min_threads} / {@code server.max_threads} - size of the Jetty pool; in virtual
+ *     mode it only runs the selectors and acceptors</li>
+ *     <li>{@code server.thread_idle_timeout_ms} - how long an idle pool thread is kept</li>
+ *     <li>{@code server.connection_idle_timeout_ms} - how long an idle connection is kept open</li>
+ *     <li>{@code server.max_concurrent_requests} - requests handled at once, 0 for no limit</li>
+ * </ul>
+ * The execution mode can also be given on the command line with {@code --execution-mode}.
+ */
+public class ServerSettings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerSettings.class);
+
+    public enum ExecutionMode {
+        PLATFORM, VIRTUAL
+    }
+
+    public final ExecutionMode executionMode;
+    public final int minThreads;
+    public final int maxThreads;
+    public final int threadIdleTimeoutMs;
+    public final long connectionIdleTimeoutMs;
+    public final int maxConcurrentRequests;
+    private final AtomicInteger virtualThreads = new AtomicInteger();
+
+    private ServerSettings(ExecutionMode executionMode, int minThreads, int maxThreads, int threadIdleTimeoutMs,
+                           long connectionIdleTimeoutMs, int maxConcurrentRequests) {
+        this.executionMode = executionMode;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.threadIdleTimeoutMs = threadIdleTimeoutMs;
+        this.connectionIdleTimeoutMs = connectionIdleTimeoutMs;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * @param config properties file
+     * @param args   command line arguments, which take precedence
+     * @return the effective settings
+     */
+    public static ServerSettings from(RepossifyConfig config, RepossifyArgs args) {
+        String mode = args.executionMode != null ? args.executionMode : config.get("server.execution_mode", "platform");
+
+        ExecutionMode executionMode;
+        try {
+            executionMode = ExecutionMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown execution mode '{}', using platform threads", mode);
+            executionMode = ExecutionMode.PLATFORM;
+        }
+
+        int maxThreads = Math.max(4, config.getInt("server.max_threads", 200));
+        return new ServerSettings(
+                executionMode,
+                Math.min(maxThreads, Math.max(1, config.getInt("server.min_threads", 8))),
+                maxThreads,
+                Math.max(1_000, config.getInt("server.thread_idle_timeout_ms", 60_000)),
+                Math.max(1_000, config.getLong("server.connection_idle_timeout_ms", 30_000)),
+                Math.max(0, config.getInt("server.max_concurrent_requests", 0))
+        );
+    }
+
+    /**
+     * Applies the settings to a Javalin configuration before the server is started.
+     *
+     * @param cfg Javalin configuration
+     */
+    public void apply(JavalinConfig cfg) {
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, threadIdleTimeoutMs);
+        pool.setName("repossify-http");
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            Executor virtual = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("repossify-vt-", 0).factory());
+            pool.setVirtualThreadsExecutor(task -> virtual.execute(() -> {
+                virtualThreads.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    virtualThreads.decrementAndGet();
+                }
+            }));
+        }
+        cfg.jetty.threadPool = pool;
+
+        cfg.jetty.modifyServer(server -> {
+            if (maxConcurrentRequests > 0) server.insertHandler(new ConcurrencyLimitHandler(maxConcurrentRequests));
+
+            server.addEventListener(new LifeCycle.Listener() {
+                @Override
+                public void lifeCycleStarting(LifeCycle event) {
+                    for (Connector connector : server.getConnectors()) {
+                        if (connector instanceof AbstractConnector c) c.setIdleTimeout(connectionIdleTimeoutMs);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * @return virtual threads currently running Jetty tasks, always 0 with platform threads
+     */
+    public int virtualThreads() {
+        return virtualThreads.get();
+    }
+
+    @Override
+    public String toString() {
+        return executionMode.name().toLowerCase(Locale.ROOT) + " threads (pool " + minThreads + "-" + maxThreads
+                + ", max concurrent requests " + (maxConcurrentRequests == 0 ? "unlimited" : maxConcurrentRequests) + ")";
+    }
+}
@@ -0,0 +1,289 @@
+package dev.d4nilpzz.server;
+
+import dev.d4nilpzz.RepossifyConfig;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for uploads: caps how many are received at once, in total and per
+ * repository, so a release pipeline publishing hundreds of files in parallel cannot flood the
+ * disk and heap and slow every download.
+ * <p>
+ * An upload over a cap waits in a short queue and is answered with {@code 503} and
+ * {@code Retry-After} when the queue is full or no slot frees up in time. Small files, such as
+ * POMs and checksums, have a lane of their own: they are let in before any waiting binary, and
+ * part of every cap is kept free for them, so a publish never stalls behind its own jars.
+ * <p>
+ * The global cap is taken before the multipart body is read, which is where memory goes, and
+ * classifies the upload by its {@code Content-Length}. The repository is only known once the body
+ * has been parsed, so the repository cap is taken after that, around the write to disk and the
+ * metadata update.
+ * <p>
+ * Configured in {@code repossify.properties}:
+ * <ul>
+ *     <li>{@code uploads.max_concurrent} - uploads received at once, 0 for no limit (default 16)</li>
+ *     <li>{@code uploads.max_concurrent_per_repo} - uploads stored at once per repository, 0 for no limit (default 8)</li>
+ *     <li>{@code uploads.queue_size} - uploads waiting per lane before new ones are rejected (default 32)</li>
+ *     <li>{@code uploads.queue_timeout_ms} - how long an upload waits for a slot (default 2000)</li>
+ *     <li>{@code uploads.small_kb} - uploads up to this size take the small file lane (default 256)</li>
+ * </ul>
+ */
+public class UploadAdmission {
+    private static final String[] SMALL_EXTENSIONS = {
+            ".pom", ".xml", ".md5", ".sha1", ".sha256", ".sha512", ".asc", ".module"
+    };
+
+    private final Gate global;
+    private final Map<String, Gate> repositories = new ConcurrentHashMap<>();
+    private final int perRepository;
+    private final int queueSize;
+    private final long timeoutNanos;
+    private final long smallBytes;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Stats of one cap.
+     *
+     * @param active      uploads holding a slot
+     * @param queuedSmall small files waiting for a slot
+     * @param queuedLarge other files waiting for a slot
+     */
+    public record GateStats(int limit, int active, int queuedSmall, int queuedLarge) {
+    }
+
+    /**
+     * A slot of the global or a repository cap, given back when closed.
+     */
+    public interface Permit extends AutoCloseable {
+        Permit NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+
+    /**
+     * @param global        uploads received at once, 0 for no limit
+     * @param perRepository uploads stored at once per repository, 0 for no limit
+     * @param queueSize     uploads waiting per lane
+     * @param timeoutMs     how long an upload waits for a slot
+     * @param smallBytes    size up to which an upload is a small file
+     */
+    public UploadAdmission(int global, int perRepository, int queueSize, long timeoutMs, long smallBytes) {
+        this.global = new Gate(Math.max(0, global));
+        this.perRepository = Math.max(0, perRepository);
+        this.queueSize = Math.max(0, queueSize);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
+        this.smallBytes = Math.max(0, smallBytes);
+    }
+
+    /**
+     * @return admission control with the caps of {@code repossify.properties}
+     */
+    public static UploadAdmission from(RepossifyConfig config) {
+        return new UploadAdmission(
+                config.getInt("uploads.max_concurrent", 16),
+                config.getInt("uploads.max_concurrent_per_repo", 8),
+                config.getInt("uploads.queue_size", 32),
+                config.getLong("uploads.queue_timeout_ms", 2_000),
+                config.getLong("uploads.small_kb", 256) * 1024
+        );
+    }
+
+    /**
+     * Takes a slot of the global cap, before the request body is read.
+     *
+     * @throws ServiceUnavailableResponse if no slot is available in time
+     */
+    public Permit admit(Context ctx) {
+        long length = ctx.req().getContentLengthLong();
+        return acquire(ctx, global, length >= 0 && length <= smallBytes);
+    }
+
+    /**
+     * Takes a slot of the repository's cap, once the upload has been parsed.
+     *
+     * @param fileName name of the uploaded file
+     * @param size     size of the uploaded file
+     * @throws ServiceUnavailableResponse if no slot is available in time
+     */
+    public Permit admit(Context ctx, String repository, String fileName, long size) {
+        if (perRepository == 0 || repository == null) return Permit.NONE;
+        Gate gate = repositories.computeIfAbsent(repository, r -> new Gate(perRepository));
+        return acquire(ctx, gate, isSmall(fileName, size));
+    }
+
+    /**
+     * @return slots handed out, the global and the repository caps counted separately
+     */
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return uploads that had to wait for a slot, admitted or not
+     */
+    public long queued() {
+        return queued.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public GateStats global() {
+        return global.stats();
+    }
+
+    /**
+     * @return stats of every repository that received uploads, by name
+     */
+    public Map<String, GateStats> repositories() {
+        Map<String, GateStats> stats = new TreeMap<>();
+        repositories.forEach((name, gate) -> stats.put(name, gate.stats()));
+        return stats;
+    }
+
+    private boolean isSmall(String fileName, long size) {
+        if (size >= 0 && size <= smallBytes) return true;
+        if (fileName == null) return false;
+
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : SMALL_EXTENSIONS) {
+            if (name.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    private Permit acquire(Context ctx, Gate gate, boolean small) {
+        if (gate.limit == 0) return Permit.NONE;
+
+        boolean acquired;
+        try {
+            acquired = gate.acquire(small);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            rejected.increment();
+            ctx.header("Retry-After", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(timeoutNanos))));
+            throw new ServiceUnavailableResponse("Too many concurrent uploads");
+        }
+        admitted.increment();
+        return () -> gate.release(small);
+    }
+
+    /**
+     * One cap with its two waiting lanes. Small files are handed a freed slot before any large
+     * one, and large files may only hold the slots left after the reserve for small files.
+     * Waiting is done on a {@link Condition}, which does not pin a virtual thread.
+     */
+    private final class Gate {
+        final int limit;
+        final int largeLimit;
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<Waiter> small = new ArrayDeque<>();
+        final ArrayDeque<Waiter> large = new ArrayDeque<>();
+        // Guarded by lock.
+        int active;
+        int largeActive;
+
+        Gate(int limit) {
+            this.limit = limit;
+            this.largeLimit = limit > 1 ? limit - Math.max(1, limit / 4) : limit;
+        }
+
+        boolean acquire(boolean isSmall) throws InterruptedException {
+            lock.lock();
+            try {
+                ArrayDeque<Waiter> lane = isSmall ? small : large;
+                if (lane.isEmpty() && (isSmall || small.isEmpty()) && canEnter(isSmall)) {
+                    enter(isSmall);
+                    return true;
+                }
+                if (lane.size() >= queueSize) return false;
+
+                queued.increment();
+                Waiter waiter = new Waiter(lock.newCondition());
+                lane.addLast(waiter);
+                long remaining = timeoutNanos;
+                try {
+                    while (!waiter.granted && remaining > 0) remaining = waiter.condition.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    // A slot handed over just before the interrupt is kept, or it would be lost.
+                    if (!waiter.granted) {
+                        lane.remove(waiter);
+                        throw e;
+                    }
+                    Thread.currentThread().interrupt();
+                }
+                if (!waiter.granted) lane.remove(waiter);
+                return waiter.granted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(boolean isSmall) {
+            lock.lock();
+            try {
+                active--;
+                if (!isSmall) largeActive--;
+
+                // Small files first; a large file only takes what is left above the reserve.
+                while (!small.isEmpty() && canEnter(true)) grant(small.pollFirst(), true);
+                while (!large.isEmpty() && canEnter(false)) grant(large.pollFirst(), false);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        GateStats stats() {
+            lock.lock();
+            try {
+                return new GateStats(limit, active, small.size(), large.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean canEnter(boolean isSmall) {
+            return active < limit && (isSmall || largeActive < largeLimit);
+        }
+
+        private void enter(boolean isSmall) {
+            active++;
+            if (!isSmall) largeActive++;
+        }
+
+        private void grant(Waiter waiter, boolean isSmall) {
+            enter(isSmall);
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    private static final class Waiter {
+        final Condition condition;
+        boolean granted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dev.d4nilpzz.storage;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColdReads lets concurrent downloads of the same file share one disk read when the file is
+ * too large for the {@link HotFileCache} but small enough to be held in memory while it is sent.
+ * Nothing is kept once the read is done, so a burst of requests right after a release costs one
+ * read instead of one per request.
+ * <p>
+ * A download that joins a read started before an upload or delete it has already seen reads the
+ * file again itself, since the shared read may hold the old content.
+ */
+public class ColdReads implements RepositoryEvents.Listener {
+    private final long maxBytes;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final SingleFlight<String, Read> reads = new SingleFlight<>();
+
+    /**
+     * A shared read, with the invalidation counter seen before it started.
+     */
+    private record Read(byte[] content, long seen) {
+    }
+
+    /**
+     * @param maxBytes largest file that is read into memory; 0 disables coalescing
+     */
+    public ColdReads(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * @param relative path relative to the repositories root
+     * @param target   the file on disk
+     * @param size     current size of the file
+     * @return the file content, or null if the file is too large to be read into memory
+     */
+    public byte[] read(Path relative, Path target, long size) throws IOException {
+        if (size > maxBytes) return null;
+
+        long arrived = invalidations.get();
+        Read shared = reads.run(relative.toString().replace('\\', '/'), () -> {
+            long seen = invalidations.get();
+            return new Read(Files.readAllBytes(target), seen);
+        });
+        return shared.seen() >= arrived ? shared.content() : Files.readAllBytes(target);
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        invalidations.incrementAndGet();
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * @return number of downloads that were answered by another download's read
+     */
+    public long shared() {
+        return reads.shared();
+    }
+}
@@ -0,0 +1,54 @@
+package dev.d4nilpzz.storage;
+
+/**
+ * Small helpers for conditional and content-encoded responses.
+ */
+public final class ContentNegotiation {
+
+    private ContentNegotiation() {
+    }
+
+    /**
+     * @param acceptEncoding value of the {@code Accept-Encoding} request header, may be null
+     * @return true if the client accepts a gzip encoded body
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0) return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param ifNoneMatch value of the {@code If-None-Match} request header, may be null
+     * @param etag        current entity tag, including quotes
+     * @return true if the client already holds the current representation
+     */
+    public static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) return true;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.d4nilpzz.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the content type of repository files from their extension.
+ * The file types of the Maven ecosystem are answered from a fixed table; anything else is probed
+ * once through {@link Files#probeContentType} and remembered for its extension.
+ */
+public final class ContentTypes {
+    public static final String OCTET_STREAM = "application/octet-stream";
+    private static final int MAX_PROBED = 1024;
+
+    private static final Map<String, String> KNOWN = Map.ofEntries(
+            Map.entry("jar", "application/java-archive"),
+            Map.entry("war", "application/java-archive"),
+            Map.entry("ear", "application/java-archive"),
+            Map.entry("aar", "application/zip"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("klib", "application/zip"),
+            Map.entry("tar", "application/x-tar"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("tgz", "application/gzip"),
+            Map.entry("bz2", "application/x-bzip2"),
+            Map.entry("pom", "application/xml"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("module", "application/json"),
+            Map.entry("json", "application/json"),
+            Map.entry("asc", "application/pgp-signature"),
+            Map.entry("md5", "text/plain"),
+            Map.entry("sha1", "text/plain"),
+            Map.entry("sha256", "text/plain"),
+            Map.entry("sha512", "text/plain"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("properties", "text/plain"),
+            Map.entry("html", "text/html")
+    );
+
+    private static final Map<String, String> PROBED = new ConcurrentHashMap<>();
+
+    private ContentTypes() {
+    }
+
+    /**
+     * @param file repository file; only probed if its extension is not known yet
+     * @return the content type, {@code application/octet-stream} if it cannot be determined
+     */
+    public static String of(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) return OCTET_STREAM;
+
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        String known = KNOWN.get(extension);
+        if (known != null) return known;
+
+        String probed = PROBED.get(extension);
+        if (probed != null) return probed;
+
+        try {
+            probed = Files.probeContentType(file);
+        } catch (IOException e) {
+            probed = null;
+        }
+        if (probed == null) probed = OCTET_STREAM;
+
+        // Extensions come from request paths, so only a bounded number of them is remembered.
+        if (PROBED.size() < MAX_PROBED) PROBED.put(extension, probed);
+        return probed;
+    }
+}
@@ -0,0 +1,158 @@
+package dev.d4nilpzz.storage;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GzipVariants keeps gzip encoded copies of text artifacts (POMs, metadata, checksums, ...)
+ * under {@code data/cache/gzip}, mirroring the layout of {@code data/repos}. Variants are written
+ * when a file is stored and stamped with the modification time of their source, so a variant is
+ * only ever served for the exact file it was produced from. Files that do not shrink by at least
+ * an eighth (tiny checksums, mostly) get no variant and are always sent as is.
+ */
+public class GzipVariants implements RepositoryEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GzipVariants.class);
+    private static final Path BASE_PATH = Paths.get("./data/repos");
+    private static final Path CACHE_PATH = Paths.get("./data/cache/gzip");
+    private static final String SUFFIX = ".gz";
+
+    private static final Set<String> COMPRESSIBLE = Set.of(
+            "pom", "xml", "json", "module", "txt", "asc", "md5", "sha1", "sha256", "sha512"
+    );
+
+    /**
+     * @param name file name
+     * @return true if files with this name get a gzip variant and should be served with {@code Vary}
+     */
+    public static boolean isCompressible(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * Looks up the gzip variant of a stored file.
+     *
+     * @param relative file path relative to the repositories root
+     * @return the variant, or null if there is none or it was produced from an older version of the file
+     */
+    public Path variant(Path relative) {
+        Path variant = variantPath(relative);
+        try {
+            FileTime source = Files.getLastModifiedTime(BASE_PATH.resolve(relative));
+            FileTime compressed = Files.getLastModifiedTime(variant);
+            return source.equals(compressed) ? variant : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generates missing or outdated variants for files that were stored before this cache existed.
+     * Runs on a daemon thread, requests are served uncompressed until their variant is ready.
+     */
+    public void backfill() {
+        Thread thread = new Thread(() -> {
+            if (!Files.isDirectory(BASE_PATH)) return;
+
+            int generated = 0;
+            try (Stream<Path> files = Files.walk(BASE_PATH)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    Path relative = BASE_PATH.relativize(file);
+                    if (!isCompressible(file.getFileName().toString())) continue;
+                    if (variant(relative) != null) continue;
+
+                    if (generate(relative)) generated++;
+                }
+            } catch (IOException | UncheckedIOException e) {
+                LOGGER.warn("Cannot walk {}: {}", BASE_PATH, e.getMessage());
+            }
+
+            if (generated > 0) LOGGER.info("Generated {} gzip variants", generated);
+        }, "gzip-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        if (isCompressible(path.getFileName().toString())) generate(path);
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        try {
+            Files.deleteIfExists(variantPath(path));
+
+            Path dir = CACHE_PATH.resolve(path);
+            if (!Files.isDirectory(dir)) return;
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException ignored) {}
+                });
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Cannot delete gzip variants of {}: {}", path, e.getMessage());
+        }
+    }
+
+    private boolean generate(Path relative) {
+        Path source = BASE_PATH.resolve(relative);
+        Path variant = variantPath(relative);
+        Path tmp = null;
+
+        try {
+            // Read the timestamp first: if the file is replaced while we compress, the stamps won't match.
+            FileTime modified = Files.getLastModifiedTime(source);
+            byte[] bytes = Files.readAllBytes(source);
+            byte[] gzip = compress(bytes);
+
+            if (gzip.length >= bytes.length - bytes.length / 8) {
+                Files.deleteIfExists(variant);
+                return false;
+            }
+
+            Files.createDirectories(variant.getParent());
+            tmp = variant.resolveSibling(variant.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            Files.write(tmp, gzip);
+            Files.setLastModifiedTime(tmp, modified);
+            Files.move(tmp, variant, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Cannot generate gzip variant of {}: {}", relative, e.getMessage());
+            return false;
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static Path variantPath(Path relative) {
+        return CACHE_PATH.resolve(relative.toString() + SUFFIX);
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,473 @@
+package dev.d4nilpzz.storage;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HotFileCache keeps small, frequently requested repository files in heap, bounded by a total
+ * byte budget. Eviction follows the W-TinyLFU scheme: new entries land in a small LRU window,
+ * and when they fall out of it they are only admitted into the main segmented LRU if a
+ * frequency sketch says they are requested more often than the entry they would replace.
+ * A burst of one-off downloads therefore cannot flush the POMs and metadata every build needs.
+ * <p>
+ * Entries are dropped on upload and delete events. Because a read may race with such an event,
+ * every insertion carries the invalidation counter seen before the file was read and is
+ * discarded if an invalidation happened in between. Concurrent misses on the same file share
+ * a single read; a caller that joins it after an invalidation reads the file again itself,
+ * since the shared read may have seen the old content.
+ * <p>
+ * Hits do not take the lock: the entry is found in a concurrent map and the access is recorded
+ * in a striped ring buffer. The buffers are drained in batches under the lock, which is when the
+ * frequency sketch and the LRU order catch up. A hit that finds its buffer full is not recorded,
+ * which only makes the eviction order slightly less precise.
+ */
+public class HotFileCache implements RepositoryEvents.Listener {
+    private static final Path BASE_PATH = Paths.get("./data/repos");
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int READ_BUFFERS = Integer.highestOneBit(
+            Math.min(64, Math.max(1, Runtime.getRuntime().availableProcessors())) * 2 - 1);
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final long windowMax;
+    private final long protectedMax;
+    private final GzipVariants gzipVariants;
+
+    // Everything below is guarded by lock, except resident, which hits read without it.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Entry> resident = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final AtomicLong invalidations = new AtomicLong();
+    private final SingleFlight<String, Read> reads = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A cached file, with its gzip variant if one exists.
+     */
+    public static final class Entry {
+        public final byte[] data;
+        public final byte[] gzip;
+        private final String key;
+        private final long weight;
+
+        private Entry(String key, byte[] data, byte[] gzip) {
+            this.key = key;
+            this.data = data;
+            this.gzip = gzip;
+            this.weight = ENTRY_OVERHEAD + key.length() * 2L + data.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+
+    /**
+     * A shared read, with the invalidation counter seen before it started.
+     */
+    private record Read(Entry entry, long seen) {
+    }
+
+    /**
+     * @param maxBytes     total budget for cached content; 0 disables the cache
+     * @param maxFileBytes files larger than this are never cached
+     * @param gzipVariants source of precompressed variants cached alongside the files
+     */
+    public HotFileCache(long maxBytes, long maxFileBytes, GzipVariants gzipVariants) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxFileBytes = Math.min(Math.max(0, maxFileBytes), this.maxBytes);
+        this.windowMax = Math.max(this.maxBytes * WINDOW_PERCENT / 100, this.maxFileBytes * 2);
+        this.protectedMax = (this.maxBytes - Math.min(windowMax, this.maxBytes)) * PROTECTED_PERCENT / 100;
+        this.gzipVariants = gzipVariants;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(256, this.maxBytes / 8192)));
+        for (int i = 0; i < READ_BUFFERS; i++) readBuffers[i] = new ReadBuffer();
+    }
+
+    /**
+     * Returns a file from memory, reading and caching it if it is small enough.
+     *
+     * @param relative file path relative to the repositories root
+     * @return the cached entry, or null if the file does not exist, is a directory or exceeds the size cutoff
+     */
+    public Entry get(Path relative) {
+        if (maxBytes == 0) return null;
+        String key = relative.toString().replace('\\', '/');
+
+        // Misses are recorded too, so the sketch sees how often a file is wanted before it is cached.
+        record(key);
+        Entry cached = resident.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long arrived = invalidations.get();
+        try {
+            Read shared = reads.run(key, () -> {
+                long seen = invalidations.get();
+                Entry entry = read(key, relative);
+                if (entry == null) return new Read(null, seen);
+
+                lock.lock();
+                try {
+                    drainReadBuffers();
+                    if (invalidations.get() == seen && !resident.containsKey(key)) insert(entry);
+                } finally {
+                    lock.unlock();
+                }
+                return new Read(entry, seen);
+            });
+            // The shared read started before an invalidation this caller has seen; it may hold
+            // the old file, so read it again without caching.
+            return shared.seen() >= arrived ? shared.entry() : read(key, relative);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        invalidate(path.toString().replace('\\', '/'));
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        invalidate(path.toString().replace('\\', '/'));
+    }
+
+    /**
+     * @return number of requests answered from memory
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests that had to go to disk
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of misses that waited for a concurrent read instead of reading themselves
+     */
+    public long coalesced() {
+        return reads.shared();
+    }
+
+    /**
+     * @return hits divided by all lookups, 0 before the first lookup
+     */
+    public double hitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return bytes currently held, including a fixed per-entry overhead
+     */
+    public long residentBytes() {
+        lock.lock();
+        try {
+            return windowBytes + probationBytes + protectedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of cached files
+     */
+    public int size() {
+        return resident.size();
+    }
+
+    /**
+     * @return configured byte budget
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    private Entry read(String key, Path relative) {
+        Path file = BASE_PATH.resolve(relative);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attrs.isRegularFile() || attrs.size() > maxFileBytes) return null;
+
+            byte[] data = Files.readAllBytes(file);
+            if (data.length > maxFileBytes) return null;
+
+            byte[] gzip = null;
+            if (GzipVariants.isCompressible(file.getFileName().toString())) {
+                Path variant = gzipVariants.variant(relative);
+                if (variant != null) gzip = Files.readAllBytes(variant);
+            }
+
+            return new Entry(key, data, gzip);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records an access to {@code key} and drains the buffers if this one is filling up and nobody
+     * else is draining.
+     */
+    private void record(String key) {
+        ReadBuffer buffer = readBuffers[(int) mix(Thread.currentThread().threadId()) & (READ_BUFFERS - 1)];
+        int pending = buffer.offer(key);
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            String key;
+            while ((key = buffer.poll()) != null) {
+                sketch.increment(key.hashCode());
+                touch(key);
+            }
+        }
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * Moves an accessed entry to the recent end of its segment, promoting it out of probation.
+     */
+    private void touch(String key) {
+        Entry entry = window.get(key);
+        if (entry != null) return;
+
+        entry = protectedSegment.get(key);
+        if (entry != null) return;
+
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.weight;
+            protectedSegment.put(key, entry);
+            protectedBytes += entry.weight;
+
+            while (protectedBytes > protectedMax && !protectedSegment.isEmpty()) {
+                Entry demoted = removeEldest(protectedSegment);
+                protectedBytes -= demoted.weight;
+                probation.put(demoted.key, demoted);
+                probationBytes += demoted.weight;
+            }
+        }
+    }
+
+    private void insert(Entry entry) {
+        if (entry.weight > windowMax) return;
+
+        window.put(entry.key, entry);
+        resident.put(entry.key, entry);
+        windowBytes += entry.weight;
+
+        while (windowBytes > windowMax) {
+            Entry candidate = removeEldest(window);
+            windowBytes -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    private void admit(Entry candidate) {
+        long mainMax = maxBytes - windowMax;
+        if (candidate.weight > mainMax) {
+            resident.remove(candidate.key, candidate);
+            return;
+        }
+
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (probationBytes + protectedBytes + candidate.weight > mainMax) {
+            boolean fromProbation = !probation.isEmpty();
+            Map<String, Entry> segment = fromProbation ? probation : protectedSegment;
+            Entry victim = segment.values().iterator().next();
+
+            if (sketch.frequency(victim.key.hashCode()) >= candidateFrequency) {
+                resident.remove(candidate.key, candidate);
+                return;
+            }
+
+            segment.remove(victim.key);
+            resident.remove(victim.key, victim);
+            if (fromProbation) probationBytes -= victim.weight;
+            else protectedBytes -= victim.weight;
+        }
+
+        probation.put(candidate.key, candidate);
+        probationBytes += candidate.weight;
+    }
+
+    private void invalidate(String changed) {
+        invalidations.incrementAndGet();
+        lock.lock();
+        try {
+            windowBytes -= removeUnder(window, changed);
+            probationBytes -= removeUnder(probation, changed);
+            protectedBytes -= removeUnder(protectedSegment, changed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long removeUnder(Map<String, Entry> segment, String changed) {
+        Entry exact = segment.remove(changed);
+        long removed = 0;
+        if (exact != null) {
+            resident.remove(exact.key, exact);
+            removed += exact.weight;
+        }
+
+        String prefix = changed + "/";
+        for (Iterator<Entry> it = segment.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.key.startsWith(prefix)) {
+                resident.remove(entry.key, entry);
+                removed += entry.weight;
+                it.remove();
+            }
+        }
+        return removed;
+    }
+
+    private static Entry removeEldest(Map<String, Entry> segment) {
+        Iterator<Entry> it = segment.values().iterator();
+        Entry eldest = it.next();
+        it.remove();
+        return eldest;
+    }
+
+    /**
+     * Lossy ring buffer of accessed keys, written without a lock by the threads of one stripe and
+     * read under the cache lock. A write is dropped when the buffer is full or another thread is
+     * writing the same slot at the same time.
+     */
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        // Written under the cache lock only.
+        private volatile long reads;
+
+        /**
+         * @return keys waiting in the buffer, including this one if it was taken
+         */
+        private int offer(String key) {
+            long tail = writes.get();
+            long pending = tail - reads;
+            if (pending >= READ_BUFFER_SIZE || !writes.compareAndSet(tail, tail + 1)) return (int) pending;
+            slots.lazySet((int) tail & (READ_BUFFER_SIZE - 1), key);
+            return (int) pending + 1;
+        }
+
+        /**
+         * @return the next key, or null if the buffer is empty or its next key is not written yet
+         */
+        private String poll() {
+            long head = reads;
+            if (head == writes.get()) return null;
+
+            int index = (int) head & (READ_BUFFER_SIZE - 1);
+            String key = slots.get(index);
+            if (key == null) return null;
+            slots.lazySet(index, null);
+            reads = head + 1;
+            return key;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, sixteen per long, that is periodically halved so
+     * popularity ages out.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        private int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                min = Math.min(min, counter(hash, i));
+            }
+            return min;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = indexHash(hash, i);
+                int index = (int) h & (table.length - 1);
+                int shift = (int) ((h >>> 32) & 15) << 2;
+                if (((table[index] >>> shift) & 15) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int counter(int hash, int i) {
+            long h = indexHash(hash, i);
+            int index = (int) h & (table.length - 1);
+            int shift = (int) ((h >>> 32) & 15) << 2;
+            return (int) ((table[index] >>> shift) & 15);
+        }
+
+        private static long indexHash(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            return h ^ (h >>> 29);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package dev.d4nilpzz.storage;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MappedFileCache keeps large repository files memory-mapped, so repeated downloads are written
+ * to the socket straight from the page cache instead of being copied through heap buffers.
+ * <p>
+ * Mappings are reference counted: the cache holds one reference and every download in progress
+ * another. A mapping that is replaced, deleted or evicted leaves the cache right away but is only
+ * unmapped once the last download using it has finished, so no reader ever touches unmapped memory.
+ * The total size of cached mappings is bounded, least recently used ones are evicted first.
+ * Concurrent requests for a file that is not mapped yet share one mapping, which is read into
+ * the page cache once before they are served.
+ */
+public class MappedFileCache implements RepositoryEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileCache.class);
+    // A single MappedByteBuffer cannot exceed 2 GB.
+    private static final long SEGMENT_BYTES = 1L << 30;
+    private static final long PRELOAD_MAX_BYTES = 256L * 1024 * 1024;
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final long minBytes;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes;
+    private final SingleFlight<String, Mapping> maps = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A mapped file. Callers of {@link #acquire} must {@link #release()} it exactly once.
+     */
+    public static final class Mapping {
+        public final long size;
+        private final long modified;
+        private final MappedByteBuffer[] segments;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Mapping(long size, long modified, MappedByteBuffer[] segments) {
+            this.size = size;
+            this.modified = modified;
+            this.segments = segments;
+        }
+
+        /**
+         * @param position  offset in the file
+         * @param maxLength maximum number of bytes
+         * @return a view of the file starting at {@code position}; shorter than {@code maxLength} at segment ends
+         */
+        public ByteBuffer slice(long position, int maxLength) {
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT_BYTES)];
+            int offset = (int) (position % SEGMENT_BYTES);
+            int length = Math.min(maxLength, segment.capacity() - offset);
+            return segment.slice(offset, length);
+        }
+
+        /**
+         * Gives up one reference, unmapping the file when it was the last one.
+         */
+        public void release() {
+            if (refs.decrementAndGet() == 0) unmap(segments);
+        }
+
+        private boolean retain() {
+            for (int current = refs.get(); current > 0; current = refs.get()) {
+                if (refs.compareAndSet(current, current + 1)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param minBytes smallest file size worth mapping; 0 disables the cache
+     * @param maxBytes total size of the files kept mapped
+     */
+    public MappedFileCache(long minBytes, long maxBytes) {
+        this.minBytes = Math.max(0, minBytes);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Returns the mapping of a file, mapping it first if needed.
+     *
+     * @param relative path relative to the repositories root
+     * @param target   the file on disk
+     * @param size     current size of the file
+     * @return a retained mapping, or null if the file is not to be mapped
+     */
+    public Mapping acquire(Path relative, Path target, long size) throws IOException {
+        if (minBytes == 0 || size < minBytes || size > maxBytes) return null;
+
+        long modified = Files.getLastModifiedTime(target).toMillis();
+        String key = key(relative);
+
+        while (true) {
+            synchronized (this) {
+                Mapping mapping = mappings.get(key);
+                if (mapping != null) {
+                    if (mapping.size == size && mapping.modified == modified && mapping.retain()) {
+                        hits.increment();
+                        return mapping;
+                    }
+                    remove(key);
+                }
+            }
+
+            // A burst of requests for a file that is not mapped yet waits for a single mapping and warm-up.
+            Mapping mapping = maps.run(key, () -> {
+                misses.increment();
+                return insert(key, map(target, size, modified));
+            });
+            if (mapping.size == size && mapping.modified == modified && mapping.retain()) return mapping;
+            // Evicted or replaced in the meantime, look again.
+        }
+    }
+
+    private synchronized Mapping insert(String key, Mapping mapping) {
+        Mapping previous = mappings.put(key, mapping);
+        if (previous != null) {
+            mappedBytes -= previous.size;
+            previous.release();
+        }
+        mappedBytes += mapping.size;
+
+        Iterator<Map.Entry<String, Mapping>> eldest = mappings.entrySet().iterator();
+        while (mappedBytes > maxBytes && eldest.hasNext()) {
+            Mapping evicted = eldest.next().getValue();
+            if (evicted == mapping) continue;
+            eldest.remove();
+            mappedBytes -= evicted.size;
+            evicted.release();
+        }
+        return mapping;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    public synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        synchronized (this) {
+            remove(key(path));
+        }
+    }
+
+    @Override
+    public void onPathDeleted(Path path) {
+        String key = key(path);
+        String prefix = key + "/";
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, Mapping>> it = mappings.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Mapping> entry = it.next();
+                if (!entry.getKey().equals(key) && !entry.getKey().startsWith(prefix)) continue;
+                it.remove();
+                mappedBytes -= entry.getValue().size;
+                entry.getValue().release();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Mapping removed = mappings.remove(key);
+        if (removed == null) return;
+        mappedBytes -= removed.size;
+        removed.release();
+    }
+
+    private static Mapping map(Path target, long size, long modified) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_BYTES, size - position));
+            }
+        } catch (IOException e) {
+            unmap(segments);
+            throw e;
+        }
+
+        // Read the file into the page cache in one sequential pass, instead of through the page
+        // faults of every download that starts before it is warm.
+        if (size <= PRELOAD_MAX_BYTES) {
+            for (MappedByteBuffer segment : segments) segment.load();
+        }
+        return new Mapping(size, modified, segments);
+    }
+
+    private static void unmap(MappedByteBuffer[] segments) {
+        // Without the cleaner the mapping is released once the buffers are garbage collected.
+        if (INVOKE_CLEANER == null) return;
+
+        for (MappedByteBuffer segment : segments) {
+            if (segment == null) continue;
+            try {
+                INVOKE_CLEANER.invokeExact((ByteBuffer) segment);
+            } catch (Throwable e) {
+                LOGGER.debug("Could not unmap file: {}", e.toString());
+            }
+        }
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Unmapping files is not supported, mapped files are released by the garbage collector");
+            return null;
+        }
+    }
+
+    private static String key(Path relative) {
+        return relative.toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,117 @@
+package dev.d4nilpzz.storage;
+
+import dev.d4nilpzz.repos.RepositoryEvents;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MissCache remembers repository paths that were recently found not to exist, so the probes
+ * Maven and Gradle send to every configured repository are answered without touching the disk.
+ * Entries expire after a fixed time and the map is bounded; when it fills up, expired entries
+ * are purged first and then arbitrary ones. Storing a file removes the cached misses for it and
+ * all of its parent directories right away, and a miss observed before a concurrent upload is
+ * never recorded after it.
+ */
+public class MissCache implements RepositoryEvents.Listener {
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    private final AtomicLong stores = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param ttlMillis  how long a miss is remembered; 0 disables the cache
+     * @param maxEntries maximum number of remembered misses
+     */
+    public MissCache(long ttlMillis, int maxEntries) {
+        this.ttlNanos = Math.max(0, ttlMillis) * 1_000_000;
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * @param relative path relative to the repositories root
+     * @return true if the path is known to be missing
+     */
+    public boolean isMissing(Path relative) {
+        if (ttlNanos == 0 || maxEntries == 0) return false;
+
+        String key = key(relative);
+        Long expiry = expiries.get(key);
+        if (expiry == null) return false;
+
+        if (expiry - System.nanoTime() < 0) {
+            expiries.remove(key, expiry);
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * @return a token to pass to {@link #recordMiss} once the disk lookup is done
+     */
+    public long beginLookup() {
+        return stores.get();
+    }
+
+    /**
+     * Remembers a missing path, unless a file was stored since {@code lookup} was taken.
+     *
+     * @param relative path relative to the repositories root
+     * @param lookup   value returned by {@link #beginLookup()} before the disk was checked
+     */
+    public void recordMiss(Path relative, long lookup) {
+        if (ttlNanos == 0 || maxEntries == 0) return;
+
+        if (expiries.size() >= maxEntries) evict();
+
+        String key = key(relative);
+        expiries.put(key, System.nanoTime() + ttlNanos);
+
+        // An upload that finished between the lookup and the put above may have missed this entry.
+        if (stores.get() != lookup) expiries.remove(key);
+    }
+
+    @Override
+    public void onFileStored(Path path) {
+        stores.incrementAndGet();
+        for (Path p = path; p != null; p = p.getParent()) {
+            expiries.remove(key(p));
+        }
+    }
+
+    /**
+     * @return number of requests answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of remembered misses, including expired ones not purged yet
+     */
+    public int size() {
+        return expiries.size();
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        expiries.values().removeIf(expiry -> expiry - now < 0);
+
+        int excess = expiries.size() - maxEntries + Math.max(1, maxEntries / 10);
+        for (Iterator<String> it = expiries.keySet().iterator(); it.hasNext() && excess > 0; excess--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String key(Path relative) {
+        return relative.toString().replace('\\', '/');
+    }
+}
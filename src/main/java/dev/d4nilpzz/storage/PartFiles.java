@@ -0,0 +1,32 @@
+package dev.d4nilpzz.storage;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Names the temporary files that uploads, proxy downloads and metadata are written to before
+ * being moved into place: {@code .<name>.<uuid>.part}, next to their target. A crash can leave
+ * them behind, so everything that lists the repositories skips them.
+ */
+public final class PartFiles {
+    private static final String SUFFIX = ".part";
+
+    private PartFiles() {
+    }
+
+    /**
+     * @param target file the part file will be moved to
+     * @return a new part file in the same directory
+     */
+    public static Path next(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + SUFFIX);
+    }
+
+    /**
+     * @param name file name
+     * @return true if the file is a part file, finished or left behind
+     */
+    public static boolean isPartFile(String name) {
+        return name.startsWith(".") && name.endsWith(SUFFIX);
+    }
+}
@@ -0,0 +1,160 @@
+package dev.d4nilpzz.storage;
+
+import io.javalin.http.ContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * StaticAssets holds the bundled web interface in memory. Every file under {@code /static} on the
+ * classpath is read once at startup, hashed for its ETag and, when it pays off, gzip compressed,
+ * so serving an asset never touches the disk or compresses anything per request.
+ */
+public class StaticAssets {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaticAssets.class);
+    private static final String ROOT = "/static";
+    private static final String INDEX = "index.html";
+
+    // Next.js puts a content hash in every file name under this prefix.
+    private static final String IMMUTABLE_PREFIX = "/_next/static/";
+
+    private final Map<String, Asset> assets;
+
+    /**
+     * One bundled file, ready to be written to a response.
+     */
+    public static final class Asset {
+        public final String path;
+        public final String contentType;
+        public final byte[] bytes;
+        public final byte[] gzip;
+        public final String etag;
+        public final String gzipEtag;
+        public final boolean immutable;
+
+        private Asset(String path, String contentType, byte[] bytes, byte[] gzip, String hash) {
+            this.path = path;
+            this.contentType = contentType;
+            this.bytes = bytes;
+            this.gzip = gzip;
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gz\"";
+            this.immutable = path.startsWith(IMMUTABLE_PREFIX);
+        }
+    }
+
+    /**
+     * Loads all bundled assets, either from the application jar or from the classes directory.
+     *
+     * @throws IOException if the assets cannot be read
+     */
+    public StaticAssets() throws IOException {
+        Map<String, Asset> loaded = new TreeMap<>();
+
+        URL index = StaticAssets.class.getResource(ROOT + "/" + INDEX);
+        if (index == null) {
+            LOGGER.warn("No bundled web interface found on the classpath");
+            this.assets = Map.of();
+            return;
+        }
+
+        try {
+            URI uri = index.toURI();
+            if (uri.getScheme().equals("jar")) {
+                try (FileSystem jar = FileSystems.newFileSystem(uri, Map.of())) {
+                    load(jar.getPath(ROOT), loaded);
+                }
+            } else {
+                load(Paths.get(uri).getParent(), loaded);
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        this.assets = Collections.unmodifiableMap(loaded);
+
+        List<Asset> distinct = loaded.values().stream().distinct().toList();
+        long raw = distinct.stream().mapToLong(a -> a.bytes.length).sum();
+        long compressed = distinct.stream().mapToLong(a -> a.gzip != null ? a.gzip.length : a.bytes.length).sum();
+        LOGGER.info("Loaded {} web assets ({} KB, {} KB compressed)", distinct.size(), raw / 1024, compressed / 1024);
+    }
+
+    /**
+     * @param path request path, e.g. {@code /_next/static/chunks/app.js}
+     * @return the asset, or null if no asset is bundled under that path
+     */
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    /**
+     * @return all assets by request path; a directory containing an index.html is also listed under its own path
+     */
+    public Map<String, Asset> all() {
+        return assets;
+    }
+
+    private static void load(Path root, Map<String, Asset> into) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String path = "/" + root.relativize(file).toString().replace('\\', '/');
+                String name = file.getFileName().toString();
+
+                byte[] bytes = Files.readAllBytes(file);
+                String hash = HexFormat.of().formatHex(sha256.digest(bytes), 0, 16);
+
+                Asset asset = new Asset(path, contentType(name), bytes, compress(bytes), hash);
+                into.put(path, asset);
+
+                if (name.equals(INDEX)) {
+                    String dir = path.substring(0, path.length() - INDEX.length());
+                    into.put(dir, asset);
+                    if (dir.length() > 1) into.put(dir.substring(0, dir.length() - 1), asset);
+                }
+            }
+        }
+    }
+
+    private static String contentType(String name) {
+        int dot = name.lastIndexOf('.');
+        String mime = dot < 0 ? null : ContentType.getMimeTypeByExtension(name.substring(dot + 1));
+        if (mime == null) return ContentType.OCTET_STREAM;
+        return mime.startsWith("text/") || mime.equals(ContentType.JAVASCRIPT) || mime.equals(ContentType.JSON)
+                ? mime + "; charset=utf-8"
+                : mime;
+    }
+
+    /**
+     * @return the gzip encoded bytes, or null if compression saves less than an eighth of the size
+     */
+    private static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gzip.write(bytes);
+        }
+        return out.size() < bytes.length - bytes.length / 8 ? out.toByteArray() : null;
+    }
+}
@@ -0,0 +1,110 @@
+package dev.d4nilpzz.utils;
+
+public class BadgeRenderer {
+
+    private static final int HEIGHT = 20;
+    private static final int PADDING = 5;
+    private static final double FONT_SIZE = 11;
+    private static final int UNITS_PER_EM = 2048;
+    private static final int DEFAULT_ADVANCE = 1300;
+
+    // Verdana advance widths in font units for printable ASCII, starting at ' ' (0x20).
+    private static final int[] ADVANCES = {
+            720, 823, 1048, 1716, 1302, 2222, 1486, 552, 1048, 1048, 1302, 1716, 745, 883, 745, 1048,
+            1302, 1302, 1302, 1302, 1302, 1302, 1302, 1302, 1302, 1302, 1048, 1048, 1716, 1716, 1716, 1112,
+            2048, 1401, 1405, 1430, 1577, 1294, 1178, 1587, 1540, 860, 921, 1416, 1145, 1720, 1532, 1612,
+            1235, 1612, 1419, 1399, 1249, 1499, 1401, 2028, 1403, 1249, 1399, 1048, 1048, 1048, 1716, 1302,
+            1302, 1233, 1276, 1067, 1276, 1220, 723, 1276, 1296, 559, 705, 1205, 559, 1992, 1296, 1243,
+            1276, 1276, 874, 1067, 807, 1296, 1205, 1657, 1205, 1205, 1064, 1300, 1048, 1300, 1716
+    };
+
+    /**
+     * Renders a two-section badge whose widths follow the label and value text.
+     *
+     * @param label  left-hand text
+     * @param value  right-hand text
+     * @param color  hex color of the value section, without '#'
+     * @param radius corner radius
+     * @return SVG document
+     */
+    public static String render(String label, String value, String color, String radius) {
+        int labelText = textWidth(label);
+        int valueText = textWidth(value);
+        int labelWidth = labelText + 2 * PADDING;
+        int valueWidth = valueText + 2 * PADDING;
+        int width = labelWidth + valueWidth;
+
+        String l = escape(label);
+        String v = escape(value);
+        String c = escape(color);
+        String r = escape(radius);
+
+        return """
+        <svg xmlns="http://www.w3.org/2000/svg" width="%d" height="%d" role="img" aria-label="%s: %s">
+          <title>%s: %s</title>
+          <linearGradient id="s" x2="0" y2="100%%">
+            <stop offset="0" stop-color="#bbb" stop-opacity=".1"/>
+            <stop offset="1" stop-opacity=".1"/>
+          </linearGradient>
+          <clipPath id="r">
+            <rect width="%d" height="%d" rx="%s" fill="#fff"/>
+          </clipPath>
+          <g clip-path="url(#r)">
+            <rect width="%d" height="%d" fill="#555"/>
+            <rect x="%d" width="%d" height="%d" fill="#%s"/>
+            <rect width="%d" height="%d" fill="url(#s)"/>
+          </g>
+          <g fill="#fff" text-anchor="middle"
+             font-family="Verdana,Geneva,DejaVu Sans,sans-serif"
+             text-rendering="geometricPrecision" font-size="110">
+            <text x="%d" y="150" fill="#010101" fill-opacity=".3" transform="scale(.1)" textLength="%d">%s</text>
+            <text x="%d" y="140" transform="scale(.1)" textLength="%d">%s</text>
+            <text x="%d" y="150" fill="#010101" fill-opacity=".3" transform="scale(.1)" textLength="%d">%s</text>
+            <text x="%d" y="140" transform="scale(.1)" textLength="%d">%s</text>
+          </g>
+        </svg>
+        """.formatted(
+                width, HEIGHT, l, v,
+                l, v,
+                width, HEIGHT, r,
+                labelWidth, HEIGHT,
+                labelWidth, valueWidth, HEIGHT, c,
+                width, HEIGHT,
+                labelWidth * 5, labelText * 10, l,
+                labelWidth * 5, labelText * 10, l,
+                (labelWidth * 2 + valueWidth) * 5, valueText * 10, v,
+                (labelWidth * 2 + valueWidth) * 5, valueText * 10, v
+        );
+    }
+
+    /**
+     * Approximates the rendered width of a text in 11px Verdana.
+     *
+     * @param text text to measure
+     * @return width in pixels, rounded up
+     */
+    public static int textWidth(String text) {
+        long units = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            units += ch >= 0x20 && ch < 0x20 + ADVANCES.length ? ADVANCES[ch - 0x20] : DEFAULT_ADVANCE;
+        }
+        return (int) Math.ceil(units * FONT_SIZE / UNITS_PER_EM);
+    }
+
+    private static String escape(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&apos;");
+                default -> out.append(ch);
+            }
+        }
+        return out.toString();
+    }
+}
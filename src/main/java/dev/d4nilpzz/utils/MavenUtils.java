@@ -1,7 +1,10 @@
 package dev.d4nilpzz.utils;
 
+import dev.d4nilpzz.search.MavenVersion;
+
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -26,13 +29,32 @@ public class MavenUtils {
             String artifactId,
             Set<String> versions
     ) {
-        String latest = versions.stream().max(String::compareTo).orElse("");
-        String lastUpdated = LocalDateTime.now()
-                .format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        return generateMavenMetadata(groupId, artifactId, versions,
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")));
+    }
+
+    /**
+     * Versions are listed in Maven order, so {@code 1.10} comes after {@code 1.9}. {@code <latest>}
+     * is the highest version and {@code <release>} the highest one that is not a snapshot.
+     *
+     * @param lastUpdated value of {@code <lastUpdated>}, {@code yyyyMMddHHmmss}
+     */
+    public static String generateMavenMetadata(
+            String groupId,
+            String artifactId,
+            Set<String> versions,
+            String lastUpdated
+    ) {
+        List<MavenVersion> sorted = versions.stream().map(MavenVersion::parse).sorted().toList();
+        String latest = sorted.isEmpty() ? "" : sorted.get(sorted.size() - 1).value;
+        String release = "";
+        for (MavenVersion version : sorted) {
+            if (!version.isSnapshot()) release = version.value;
+        }
 
         StringBuilder versionsXml = new StringBuilder();
-        for (String v : versions) {
-            versionsXml.append("<version>").append(v).append("</version>");
+        for (MavenVersion v : sorted) {
+            versionsXml.append("<version>").append(v.value).append("</version>");
         }
 
         return """
@@ -55,7 +77,7 @@ public class MavenUtils {
           </versioning>
         </metadata>
         """
-                .formatted(groupId, artifactId, latest, latest, lastUpdated, versionsXml)
+                .formatted(groupId, artifactId, release, latest, lastUpdated, versionsXml)
                 .trim();
     }
 